@@ -8,6 +8,7 @@
 
 package nl.cwi.monetdb.jdbc;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
@@ -20,20 +21,20 @@ import java.sql.SQLFeatureNotSupportedException;
 /**
  * The MonetClob class implements the {@link java.sql.Clob} interface.  Because
  * MonetDB/SQL currently has no support for streams, this class is a
- * shallow wrapper of a {@link StringBuilder}.  It is more or less supplied to
- * enable an application that depends on it to run.  It may be obvious
- * that it is a real resource expensive workaround that contradicts the
- * sole reason for a Clob: avoidance of huge resource consumption.
- * <b>Use of this class is highly discouraged.</b>
+ * shallow wrapper of the {@link CharSequence} received from the server.
+ * The field data is not copied: readers and substrings are views over
+ * the original value.  Only when the Clob is modified via setString() a
+ * private {@link StringBuilder} copy is made.
  *
  * @author Fabian Groffen
  */
 public class MonetClob implements Clob {
 
-	private StringBuilder buf;
+	/** the value, a String as received, or a StringBuilder once modified */
+	private CharSequence buf;
 
 	protected MonetClob(String in) {
-		buf = new StringBuilder(in);
+		buf = in;
 	}
 
 	/* internal utility method */
@@ -42,6 +43,13 @@ public class MonetClob implements Clob {
 			throw new SQLException("This MonetClob has been freed", "M1M20");
 	}
 
+	/* internal utility method, copies the value on first modification */
+	private StringBuilder getMutableBuf() {
+		if (!(buf instanceof StringBuilder))
+			buf = new StringBuilder(buf);
+		return (StringBuilder)buf;
+	}
+
 	//== begin interface Clob
 
 	/**
@@ -83,7 +91,9 @@ public class MonetClob implements Clob {
 	@Override
 	public Reader getCharacterStream() throws SQLException {
 		checkBufIsNotNull();
-		return new StringReader(buf.toString());
+		if (buf instanceof String)
+			return new StringReader((String)buf);
+		return new CharSequenceReader(buf, 0, buf.length());
 	}
 
 	/**
@@ -103,7 +113,9 @@ public class MonetClob implements Clob {
 	@Override
 	public Reader getCharacterStream(long pos, long length) throws SQLException {
 		checkBufIsNotNull();
-		return new StringReader(getSubString(pos, (int)length));
+		if (pos < 1 || length < 0 || pos - 1 + length > buf.length())
+			throw new SQLException("Invalid pos or length value: " + pos + ", " + length, "M1M05");
+		return new CharSequenceReader(buf, (int)(pos - 1), (int)(pos - 1 + length));
 	}
 
 	/**
@@ -123,7 +135,7 @@ public class MonetClob implements Clob {
 	public String getSubString(long pos, int length) throws SQLException {
 		checkBufIsNotNull();
 		try {
-			return buf.substring((int)(pos - 1), (int)(pos - 1 + length));
+			return buf.subSequence((int)(pos - 1), (int)(pos - 1 + length)).toString();
 		} catch (IndexOutOfBoundsException e) {
 			throw new SQLException(e.getMessage());
 		}
@@ -177,7 +189,9 @@ public class MonetClob implements Clob {
 	@Override
 	public long position(String searchstr, long start) throws SQLException {
 		checkBufIsNotNull();
-		return (long)(buf.indexOf(searchstr, (int)(start - 1)));
+		if (buf instanceof String)
+			return (long)(((String)buf).indexOf(searchstr, (int)(start - 1)));
+		return (long)(((StringBuilder)buf).indexOf(searchstr, (int)(start - 1)));
 	}
 
 	@Override
@@ -231,7 +245,7 @@ public class MonetClob implements Clob {
 		int buflen = buf.length();
 		int retlen = Math.min(buflen, (int)(pos - 1 + len));
 		if (retlen > 0) {
-			buf.replace((int)(pos - 1), (int)(pos + retlen), str.substring(offset - 1, (offset + len)));
+			getMutableBuf().replace((int)(pos - 1), (int)(pos + retlen), str.substring(offset - 1, (offset + len)));
 			return retlen;
 		} else {
 			return 0;
@@ -253,6 +267,20 @@ public class MonetClob implements Clob {
 		// this command is a no-op
 	}
 
+	/**
+	 * Returns the character data behind this Clob without copying it.
+	 * This is a MonetClob extension that does not violate nor is
+	 * described in the Clob interface.  The returned CharSequence must
+	 * not be modified by the caller.
+	 *
+	 * @return the CharSequence this Clob wraps
+	 * @throws SQLException if this Clob has been freed
+	 */
+	public CharSequence getCharSequence() throws SQLException {
+		checkBufIsNotNull();
+		return buf;
+	}
+
 	/**
 	 * Returns the String behind this Clob.  This is a MonetClob
 	 * extension that does not violate nor is described in the Clob
@@ -264,4 +292,99 @@ public class MonetClob implements Clob {
 	public String toString() {
 		return (buf == null) ? "null" : buf.toString();
 	}
+
+	/**
+	 * A Reader over a range of a CharSequence.  Unlike a StringReader
+	 * on a substring, no copy of the character data is made.  The
+	 * CharSequence may be a StringBuilder which shrinks while the
+	 * Reader is in use (see setString()), hence the range is limited to
+	 * its current length on every read.
+	 */
+	private static final class CharSequenceReader extends Reader {
+		private CharSequence seq;
+		private int pos;
+		private int mark;
+		private final int end;
+
+		CharSequenceReader(CharSequence seq, int start, int end) {
+			this.seq = seq;
+			this.pos = start;
+			this.mark = start;
+			this.end = end;
+		}
+
+		/** the end of the range, or of the CharSequence if it shrunk */
+		private int limit() {
+			return Math.min(end, seq.length());
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (seq == null)
+				throw new IOException("Stream closed");
+			return (pos < limit()) ? seq.charAt(pos++) : -1;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (seq == null)
+				throw new IOException("Stream closed");
+			if (off < 0 || len < 0 || off + len > cbuf.length)
+				throw new IndexOutOfBoundsException();
+			if (len == 0)
+				return 0;
+			int limit = limit();
+			if (pos >= limit)
+				return -1;
+			int n = Math.min(len, limit - pos);
+			if (seq instanceof String) {
+				((String)seq).getChars(pos, pos + n, cbuf, off);
+			} else if (seq instanceof StringBuilder) {
+				((StringBuilder)seq).getChars(pos, pos + n, cbuf, off);
+			} else {
+				for (int i = 0; i < n; i++)
+					cbuf[off + i] = seq.charAt(pos + i);
+			}
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			if (seq == null)
+				throw new IOException("Stream closed");
+			int k = (int)Math.max(0, Math.min(n, limit() - pos));
+			pos += k;
+			return k;
+		}
+
+		@Override
+		public boolean ready() throws IOException {
+			if (seq == null)
+				throw new IOException("Stream closed");
+			return true;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public void mark(int readAheadLimit) {
+			mark = pos;
+		}
+
+		@Override
+		public void reset() throws IOException {
+			if (seq == null)
+				throw new IOException("Stream closed");
+			pos = mark;
+		}
+
+		@Override
+		public void close() {
+			seq = null;
+		}
+	}
 }
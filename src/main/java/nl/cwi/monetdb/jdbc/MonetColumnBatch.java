@@ -0,0 +1,485 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+package nl.cwi.monetdb.jdbc;
+
+import nl.cwi.monetdb.mcl.parser.TupleLineParser;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * A batch of rows of a MonetResultSet, stored column-wise.  Instances
+ * are filled by {@link MonetResultSet#fetchColumns(int)}.
+ *
+ * Each column is stored in a vector of which the Java type depends on
+ * the JDBC SQL type of the column:
+ * <ul>
+ * <li>TINYINT, SMALLINT, INTEGER: int[], see getInts()</li>
+ * <li>BIGINT: long[], see getLongs()</li>
+ * <li>REAL, FLOAT, DOUBLE, DECIMAL, NUMERIC: double[], see getDoubles().
+ *     Note that DECIMAL and NUMERIC values may lose precision this way.</li>
+ * <li>BOOLEAN: boolean[], see getBooleans()</li>
+ * <li>BLOB, BINARY, VARBINARY, LONGVARBINARY: byte[][], see getBytes()</li>
+ * <li>all other types: String[], see getStrings()</li>
+ * </ul>
+ * Numeric values are decoded directly from the received characters,
+ * without creating intermediate (boxed) objects.  NULL values are
+ * recorded in a bitmap per column, see isNull() and getNullBitmap().
+ * For primitive vectors the value at a NULL position is 0 (false).
+ *
+ * The vectors are allocated for the capacity of the batch and are
+ * reused when the batch is passed to
+ * {@link MonetResultSet#fetchColumns(int, MonetColumnBatch)} again, so
+ * only the first getRowCount() entries are valid.
+ */
+public final class MonetColumnBatch {
+	/* the kinds of vectors */
+	private static final int VEC_INT = 1;
+	private static final int VEC_LONG = 2;
+	private static final int VEC_DOUBLE = 3;
+	private static final int VEC_BOOLEAN = 4;
+	private static final int VEC_BYTES = 5;
+	private static final int VEC_STRING = 6;
+
+	/** powers of ten which can be represented exactly as a double */
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+		1e21, 1e22
+	};
+
+	/** the JDBC SQL types of the columns */
+	private final int[] types;
+	/** the kind of vector used for each column */
+	private final int[] kinds;
+	/** the vector of each column */
+	private final Object[] vectors;
+	/** the NULL bitmap of each column */
+	private final long[][] nulls;
+	/** the number of rows the vectors can hold */
+	private final int capacity;
+	/** the number of valid rows */
+	private int rowCount;
+
+	/**
+	 * Creates a batch for columns of the given JDBC SQL types, able to
+	 * hold capacity rows.
+	 *
+	 * @param types the JDBC SQL types of the columns
+	 * @param capacity the maximum number of rows
+	 */
+	MonetColumnBatch(int[] types, int capacity) {
+		this.types = types.clone();
+		this.capacity = capacity;
+		kinds = new int[types.length];
+		vectors = new Object[types.length];
+		nulls = new long[types.length][(capacity + 63) >>> 6];
+		for (int i = 0; i < types.length; i++) {
+			switch (types[i]) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+					kinds[i] = VEC_INT;
+					vectors[i] = new int[capacity];
+					break;
+				case Types.BIGINT:
+					kinds[i] = VEC_LONG;
+					vectors[i] = new long[capacity];
+					break;
+				case Types.REAL:
+				case Types.FLOAT:
+				case Types.DOUBLE:
+				case Types.DECIMAL:
+				case Types.NUMERIC:
+					kinds[i] = VEC_DOUBLE;
+					vectors[i] = new double[capacity];
+					break;
+				case Types.BOOLEAN:
+					kinds[i] = VEC_BOOLEAN;
+					vectors[i] = new boolean[capacity];
+					break;
+				case Types.BLOB:
+				case Types.BINARY:
+				case Types.VARBINARY:
+				case Types.LONGVARBINARY:
+					kinds[i] = VEC_BYTES;
+					vectors[i] = new byte[capacity][];
+					break;
+				default:
+					kinds[i] = VEC_STRING;
+					vectors[i] = new String[capacity];
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether this batch can be reused for columns of the given
+	 * types and the given number of rows.
+	 */
+	boolean fits(int[] types, int rows) {
+		return rows <= capacity && Arrays.equals(this.types, types);
+	}
+
+	/**
+	 * Marks the columns which are stored in a primitive vector as raw in
+	 * the given parser, such that their values are decoded from the
+	 * line buffer instead of from Strings.
+	 */
+	void setRawColumns(TupleLineParser tlp) {
+		for (int i = 0; i < kinds.length; i++) {
+			if (kinds[i] != VEC_STRING)
+				tlp.setRaw(i);
+		}
+	}
+
+	/** Empties this batch for reuse. */
+	void clear() {
+		for (int i = 0; i < nulls.length; i++)
+			Arrays.fill(nulls[i], 0L);
+		for (int i = 0; i < vectors.length; i++) {
+			// drop the references to the objects of the previous batch
+			if (kinds[i] == VEC_STRING || kinds[i] == VEC_BYTES)
+				Arrays.fill((Object[])vectors[i], 0, rowCount, null);
+		}
+		rowCount = 0;
+	}
+
+	/**
+	 * Stores the values of the line last parsed by the given parser as
+	 * the next row of this batch.
+	 *
+	 * @param tlp the parser holding the values of the row
+	 * @throws SQLException if a value cannot be converted
+	 */
+	void addRow(TupleLineParser tlp) throws SQLException {
+		final int row = rowCount;
+		final char[] buf = tlp.getLineBuffer();
+		for (int i = 0; i < kinds.length; i++) {
+			final int kind = kinds[i];
+			if (kind == VEC_STRING) {
+				String val = tlp.values[i];
+				if (val == null)
+					setNull(i, row);
+				((String[])vectors[i])[row] = val;
+				continue;
+			}
+
+			// primitive and binary columns are raw in the parser
+			int len = tlp.getRawLength(i);
+			if (len == -1) {
+				setNull(i, row);
+				clearValue(kind, vectors[i], row);
+				continue;
+			}
+			final char[] chars;
+			final int off;
+			if (len == -2) {
+				// the value was sent quoted
+				String val = tlp.values[i];
+				chars = val.toCharArray();
+				off = 0;
+				len = chars.length;
+			} else {
+				chars = buf;
+				off = tlp.getRawOffset(i);
+			}
+			try {
+				switch (kind) {
+					case VEC_INT:
+						long l = parseLong(chars, off, len);
+						if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE)
+							throw new NumberFormatException("For input string: \"" + new String(chars, off, len) + "\"");
+						((int[])vectors[i])[row] = (int)l;
+						break;
+					case VEC_LONG:
+						((long[])vectors[i])[row] = parseLong(chars, off, len);
+						break;
+					case VEC_DOUBLE:
+						((double[])vectors[i])[row] = parseDouble(chars, off, len);
+						break;
+					case VEC_BOOLEAN:
+						((boolean[])vectors[i])[row] =
+							len == 4 && chars[off] == 't' && chars[off + 1] == 'r' &&
+							chars[off + 2] == 'u' && chars[off + 3] == 'e';
+						break;
+					case VEC_BYTES:
+						((byte[][])vectors[i])[row] = parseHex(chars, off, len);
+						break;
+				}
+			} catch (NumberFormatException e) {
+				throw new SQLDataException("Could not convert value to a number. " + e.getMessage(), "22003");
+			}
+		}
+		rowCount++;
+	}
+
+	//== public API
+
+	/**
+	 * Returns the number of valid rows in this batch.  A batch without
+	 * rows signals that the end of the result set was reached.
+	 *
+	 * @return the number of rows
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Returns the number of columns in this batch.
+	 *
+	 * @return the number of columns
+	 */
+	public int getColumnCount() {
+		return types.length;
+	}
+
+	/**
+	 * Returns the JDBC SQL type of the given column.
+	 *
+	 * @param column the first column is 1, the second is 2, ...
+	 * @return the SQL type from java.sql.Types
+	 * @throws SQLException if the column index is invalid
+	 */
+	public int getColumnType(int column) throws SQLException {
+		checkColumn(column);
+		return types[column - 1];
+	}
+
+	/**
+	 * Returns whether the value of the given column in the given row is
+	 * NULL.
+	 *
+	 * @param column the first column is 1, the second is 2, ...
+	 * @param row the row in this batch, the first row is 0
+	 * @return true if the value is NULL
+	 * @throws SQLException if the column index is invalid
+	 */
+	public boolean isNull(int column, int row) throws SQLException {
+		checkColumn(column);
+		return (nulls[column - 1][row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * Returns the NULL bitmap of the given column.  Row r is NULL if
+	 * bit (r &amp; 63) of element (r &gt;&gt;&gt; 6) is set.
+	 *
+	 * @param column the first column is 1, the second is 2, ...
+	 * @return the NULL bitmap
+	 * @throws SQLException if the column index is invalid
+	 */
+	public long[] getNullBitmap(int column) throws SQLException {
+		checkColumn(column);
+		return nulls[column - 1];
+	}
+
+	/**
+	 * Returns the int vector of a TINYINT, SMALLINT or INTEGER column.
+	 *
+	 * @param column the first column is 1, the second is 2, ...
+	 * @return the values of the column
+	 * @throws SQLException if the column is not stored as int[]
+	 */
+	public int[] getInts(int column) throws SQLException {
+		return (int[])getVector(column, VEC_INT, "int[]");
+	}
+
+	/**
+	 * Returns the long vector of a BIGINT column.
+	 *
+	 * @param column the first column is 1, the second is 2, ...
+	 * @return the values of the column
+	 * @throws SQLException if the column is not stored as long[]
+	 */
+	public long[] getLongs(int column) throws SQLException {
+		return (long[])getVector(column, VEC_LONG, "long[]");
+	}
+
+	/**
+	 * Returns the double vector of a REAL, FLOAT, DOUBLE, DECIMAL or
+	 * NUMERIC column.
+	 *
+	 * @param column the first column is 1, the second is 2, ...
+	 * @return the values of the column
+	 * @throws SQLException if the column is not stored as double[]
+	 */
+	public double[] getDoubles(int column) throws SQLException {
+		return (double[])getVector(column, VEC_DOUBLE, "double[]");
+	}
+
+	/**
+	 * Returns the boolean vector of a BOOLEAN column.
+	 *
+	 * @param column the first column is 1, the second is 2, ...
+	 * @return the values of the column
+	 * @throws SQLException if the column is not stored as boolean[]
+	 */
+	public boolean[] getBooleans(int column) throws SQLException {
+		return (boolean[])getVector(column, VEC_BOOLEAN, "boolean[]");
+	}
+
+	/**
+	 * Returns the byte array vector of a binary column.  NULL values
+	 * are represented by null.
+	 *
+	 * @param column the first column is 1, the second is 2, ...
+	 * @return the values of the column
+	 * @throws SQLException if the column is not stored as byte[][]
+	 */
+	public byte[][] getBytes(int column) throws SQLException {
+		return (byte[][])getVector(column, VEC_BYTES, "byte[][]");
+	}
+
+	/**
+	 * Returns the String vector of a column of any other type.  NULL
+	 * values are represented by null.
+	 *
+	 * @param column the first column is 1, the second is 2, ...
+	 * @return the values of the column
+	 * @throws SQLException if the column is not stored as String[]
+	 */
+	public String[] getStrings(int column) throws SQLException {
+		return (String[])getVector(column, VEC_STRING, "String[]");
+	}
+
+	//== internal helpers
+
+	private void checkColumn(int column) throws SQLException {
+		if (column < 1 || column > types.length)
+			throw MonetResultSet.newSQLInvalidColumnIndexException(column);
+	}
+
+	private Object getVector(int column, int kind, String name) throws SQLException {
+		checkColumn(column);
+		if (kinds[column - 1] != kind)
+			throw new SQLException("Column " + column + " is not stored as " + name, "M1M05");
+		return vectors[column - 1];
+	}
+
+	private void setNull(int col, int row) {
+		nulls[col][row >>> 6] |= 1L << row;
+	}
+
+	private static void clearValue(int kind, Object vector, int row) {
+		switch (kind) {
+			case VEC_INT:
+				((int[])vector)[row] = 0;
+				break;
+			case VEC_LONG:
+				((long[])vector)[row] = 0L;
+				break;
+			case VEC_DOUBLE:
+				((double[])vector)[row] = 0.0;
+				break;
+			case VEC_BOOLEAN:
+				((boolean[])vector)[row] = false;
+				break;
+			case VEC_BYTES:
+				((byte[][])vector)[row] = null;
+				break;
+		}
+	}
+
+	/**
+	 * Parses a decimal integer from the given characters, without
+	 * creating a String.
+	 */
+	static long parseLong(char[] chars, int off, int len) {
+		int i = off;
+		final int end = off + len;
+		boolean neg = false;
+		if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+			neg = chars[i] == '-';
+			i++;
+		}
+		if (i == end || end - i > 18)
+			// empty or possibly overflowing, let Long do the work
+			return Long.parseLong(new String(chars, off, len));
+		long val = 0;
+		for (; i < end; i++) {
+			int d = chars[i] - '0';
+			if (d < 0 || d > 9)
+				throw new NumberFormatException("For input string: \"" + new String(chars, off, len) + "\"");
+			val = val * 10 + d;
+		}
+		return neg ? -val : val;
+	}
+
+	/**
+	 * Parses a decimal floating point number from the given characters.
+	 * Numbers with at most 15 significant digits and a small exponent
+	 * are converted exactly without creating a String, all others are
+	 * passed on to Double.parseDouble().
+	 */
+	static double parseDouble(char[] chars, int off, int len) {
+		int i = off;
+		final int end = off + len;
+		boolean neg = false;
+		if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+			neg = chars[i] == '-';
+			i++;
+		}
+		long mant = 0;
+		int digits = 0, exp = 0;
+		boolean seenDigit = false, seenDot = false;
+		for (; i < end; i++) {
+			char c = chars[i];
+			if (c >= '0' && c <= '9') {
+				seenDigit = true;
+				if (mant != 0 || c != '0')
+					digits++;
+				mant = mant * 10 + (c - '0');
+				if (seenDot)
+					exp--;
+				if (digits > 15)
+					return Double.parseDouble(new String(chars, off, len));
+			} else if (c == '.' && !seenDot) {
+				seenDot = true;
+			} else {
+				break;
+			}
+		}
+		if (i < end && seenDigit && (chars[i] == 'e' || chars[i] == 'E')) {
+			i++;
+			boolean eneg = false;
+			if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+				eneg = chars[i] == '-';
+				i++;
+			}
+			int e = 0, edigits = 0;
+			for (; i < end && chars[i] >= '0' && chars[i] <= '9' && edigits < 4; i++, edigits++)
+				e = e * 10 + (chars[i] - '0');
+			if (edigits == 0)
+				return Double.parseDouble(new String(chars, off, len));
+			exp += eneg ? -e : e;
+		}
+		if (i != end || !seenDigit || exp < -22 || exp > 22)
+			return Double.parseDouble(new String(chars, off, len));
+
+		// mant < 10^15 < 2^53, so both mant and the power of ten are exact
+		// and the single multiplication or division is correctly rounded
+		double val = exp < 0 ? (double)mant / POW10[-exp] : (double)mant * POW10[exp];
+		return neg ? -val : val;
+	}
+
+	/** Decodes the HEX notation of a binary value. */
+	private static byte[] parseHex(char[] chars, int off, int len) {
+		byte[] res = new byte[len / 2];
+		for (int i = 0; i < res.length; i++) {
+			int hi = Character.digit(chars[off + 2 * i], 16);
+			int lo = Character.digit(chars[off + 2 * i + 1], 16);
+			if (hi < 0 || lo < 0)
+				throw new NumberFormatException("For input string: \"" + new String(chars, off + 2 * i, 2) + "\"");
+			res[i] = (byte)((hi << 4) | lo);
+		}
+		return res;
+	}
+}
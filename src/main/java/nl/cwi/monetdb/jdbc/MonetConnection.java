@@ -8,9 +8,25 @@
 
 package nl.cwi.monetdb.jdbc;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.net.SocketTimeoutException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
@@ -26,13 +42,21 @@ import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.WeakHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -80,7 +104,8 @@ public class MonetConnection
 	/** the successful processed input properties */
 	private final Properties conn_props = new Properties();
 
-	/** The hostname to connect to */
+	/** The hostname to connect to, or the comma separated servers to
+	 *  balance over */
 	private final String hostname;
 	/** The port to connect on the host to */
 	private int port = 0;
@@ -91,8 +116,17 @@ public class MonetConnection
 	/** The password to use when authenticating */
 	private final String password;
 
+	/** The balancer of the servers to connect to, or null if the
+	 *  URL names just one */
+	private MonetLoadBalancer balancer = null;
+	/** The server of the balancer connected to */
+	private MonetLoadBalancer.Endpoint endpoint = null;
 	/** A connection to mserver5 using a TCP socket */
 	private final MapiSocket server;
+	/** Guards all communication with the server.  Unlike a monitor, it
+	 *  does not pin the carrier of a virtual thread that waits for the
+	 *  server while holding it. */
+	private final ReentrantLock lock = new ReentrantLock();
 	/** The Reader from the server */
 	private final BufferedMCLReader in;
 	/** The Writer to the server */
@@ -103,6 +137,8 @@ public class MonetConnection
 
 	/** Whether this Connection is closed (and cannot be used anymore) */
 	private boolean closed;
+	/** Run when this Connection gets closed, see setCloseHook() */
+	private Runnable closeHook = null;
 
 	/** Whether this Connection is in autocommit mode */
 	private boolean autoCommit = true;
@@ -119,13 +155,30 @@ public class MonetConnection
 		}
 	};
 
-	// See javadoc for documentation about WeakHashMap if you don't know what
-	// it does !!!NOW!!! (only when you deal with it of course)
-	/** A Map containing all (active) Statements created from this Connection */
-	private Map<Statement,?> statements = new WeakHashMap<Statement, Object>();
+	/** The registrations of the open Statements created from this
+	 *  Connection, see registerStatement() */
+	private final Set<StatementRef> statements =
+		Collections.newSetFromMap(new ConcurrentHashMap<StatementRef, Boolean>());
+	/** The registrations of the Statements which were garbage
+	 *  collected without being closed */
+	private final ReferenceQueue<MonetStatement> abandonedStatements =
+		new ReferenceQueue<MonetStatement>();
+	/** The number of open Statements from which on the creation of
+	 *  Statements is recorded, 0 means never */
+	private int leakDetectionThreshold = 0;
 
 	/** The number of results we receive from the server at once */
 	private int curReplySize = -1;	// the server by default uses -1 (all)
+	/** The query timeout of the session, as far as we know, -1 if unknown */
+	private int curQueryTimeout = 0;	// the server by default has no timeout
+	/** The query which set the time zone of the session at connect */
+	private String timeZoneQuery;
+	/** The schema the session started with, null until it is needed */
+	private String initialSchema;
+	/** The role the session started with */
+	private String initialRole;
+	/** Whether a SET statement may have changed the schema, role or time zone */
+	private boolean sessionSettingsChanged = false;
 
 	/** A template to apply to each query (like pre and post fixes), filled in constructor */
 	public final String[] queryTempl = new String[3]; // pre, post, sep
@@ -146,6 +199,18 @@ public class MonetConnection
 	private boolean treatBlobAsVarBinary = false;
 	/** Whether or not CLOB is mapped to Types.VARCHAR instead of Types.CLOB within this connection */
 	private boolean treatClobAsVarChar = false;
+	/** Whether or not values of character columns are deduplicated in ResultSets */
+	private boolean dedupStrings = false;
+	/** The maximum number of idle prepared statement handles kept for reuse */
+	private int preparedStatementCacheSize = 0;
+	/** The idle server-side handles of closed PreparedStatements, least recently used first */
+	private Map<String, MonetPreparedStatement.Handle> preparedStatementCache;
+	/** The generation of prepared handles, incremented when the cache
+	 *  is emptied because the schema or the objects may have changed;
+	 *  guarded by preparedStatementCache */
+	private int preparedHandleGeneration = 0;
+	/** The number of characters of batched statements at which they are sent, 0 means at executeBatch */
+	private int batchFlushSize = 0;
 
 	/**
 	 * Constructor of a Connection for MonetDB. At this moment the
@@ -221,6 +286,75 @@ public class MonetConnection
 				typeMap.put("clob", String.class);
 		}
 
+		String dedupStrings_prop = props.getProperty("dedup_strings");
+		if (dedupStrings_prop != null) {
+			dedupStrings = Boolean.parseBoolean(dedupStrings_prop);
+			conn_props.setProperty("dedup_strings", Boolean.toString(dedupStrings));
+		}
+
+		String psCacheSize_prop = props.getProperty("prepared_statement_cache_size");
+		if (psCacheSize_prop != null) {
+			try {
+				preparedStatementCacheSize = Integer.parseInt(psCacheSize_prop);
+				if (preparedStatementCacheSize < 0) {
+					addWarning("Negative prepared statement cache size not allowed. Value ignored", "M1M05");
+					preparedStatementCacheSize = 0;
+				}
+			} catch (NumberFormatException e) {
+				addWarning("Unable to parse prepared statement cache size number from: " + psCacheSize_prop, "M1M05");
+			}
+			conn_props.setProperty("prepared_statement_cache_size", Integer.toString(preparedStatementCacheSize));
+			if (preparedStatementCacheSize > 0)
+				preparedStatementCache = new LinkedHashMap<String, MonetPreparedStatement.Handle>();
+		}
+
+		String batchFlushSize_prop = props.getProperty("batch_flush_size");
+		if (batchFlushSize_prop != null) {
+			try {
+				batchFlushSize = Integer.parseInt(batchFlushSize_prop);
+				if (batchFlushSize < 0) {
+					addWarning("Negative batch flush size not allowed. Value ignored", "M1M05");
+					batchFlushSize = 0;
+				}
+			} catch (NumberFormatException e) {
+				addWarning("Unable to parse batch flush size number from: " + batchFlushSize_prop, "M1M05");
+			}
+			conn_props.setProperty("batch_flush_size", Integer.toString(batchFlushSize));
+		}
+
+		String leakDetectionThreshold_prop = props.getProperty("leak_detection_threshold");
+		if (leakDetectionThreshold_prop != null) {
+			try {
+				leakDetectionThreshold = Integer.parseInt(leakDetectionThreshold_prop);
+				if (leakDetectionThreshold < 0) {
+					addWarning("Negative leak detection threshold not allowed. Value ignored", "M1M05");
+					leakDetectionThreshold = 0;
+				}
+			} catch (NumberFormatException e) {
+				addWarning("Unable to parse leak detection threshold number from: " + leakDetectionThreshold_prop, "M1M05");
+			}
+			conn_props.setProperty("leak_detection_threshold", Integer.toString(leakDetectionThreshold));
+		}
+
+		String loadBalance = props.getProperty("load_balance", MonetLoadBalancer.ROUND_ROBIN);
+		if (props.getProperty("load_balance") != null)
+			conn_props.setProperty("load_balance", loadBalance);
+
+		int healthCheckInterval = 10;
+		String healthCheckInterval_prop = props.getProperty("health_check_interval");
+		if (healthCheckInterval_prop != null) {
+			try {
+				healthCheckInterval = Integer.parseInt(healthCheckInterval_prop);
+				if (healthCheckInterval < 0) {
+					addWarning("Negative health check interval not allowed. Value ignored", "M1M05");
+					healthCheckInterval = 10;
+				}
+			} catch (NumberFormatException e) {
+				addWarning("Unable to parse health check interval number from: " + healthCheckInterval_prop, "M1M05");
+			}
+			conn_props.setProperty("health_check_interval", Integer.toString(healthCheckInterval));
+		}
+
 		int sockTimeout = 0;
 		String so_timeout_prop = props.getProperty("so_timeout");
 		if (so_timeout_prop != null) {
@@ -245,6 +379,8 @@ public class MonetConnection
 			throw new IllegalArgumentException("Missing or empty user name");
 		if (password == null || password.isEmpty())
 			throw new IllegalArgumentException("Missing or empty password");
+		if (hostname.indexOf(',') >= 0)
+			balancer = MonetLoadBalancer.get(hostname, port, loadBalance, healthCheckInterval);
 		if (language == null || language.isEmpty()) {
 			// fallback to default language: sql
 			language = "sql";
@@ -281,7 +417,9 @@ public class MonetConnection
 		}
 
 		try {
-			List<String> warnings = server.connect(hostname, port, username, password);
+			List<String> warnings = balancer == null
+				? server.connect(hostname, port, username, password)
+				: connectBalanced();
 			for (String warning : warnings) {
 				addWarning(warning, "01M02");
 			}
@@ -297,7 +435,7 @@ public class MonetConnection
 			if (error != null)
 				throw new SQLNonTransientConnectionException((error.length() > 6) ? error.substring(6) : error, "08001");
 		} catch (IOException e) {
-			throw new SQLNonTransientConnectionException("Unable to connect (" + hostname + ":" + port + "): " + e.getMessage(), "08006");
+			throw new SQLNonTransientConnectionException("Unable to connect (" + (balancer != null ? balancer : hostname + ":" + port) + "): " + e.getMessage(), "08006");
 		} catch (MCLParseException e) {
 			throw new SQLNonTransientConnectionException(e.getMessage(), "08001");
 		} catch (MCLException e) {
@@ -348,13 +486,51 @@ public class MonetConnection
 			tz += (Math.abs(offset) / 60 < 10 ? "0" : "") + (Math.abs(offset) / 60) + ":";
 			offset -= (offset / 60) * 60;
 			tz += (offset < 10 ? "0" : "") + offset;
-			sendIndependentCommand("SET TIME ZONE INTERVAL '" + tz + "' HOUR TO MINUTE");
+			timeZoneQuery = "SET TIME ZONE INTERVAL '" + tz + "' HOUR TO MINUTE";
+			sendIndependentCommand(timeZoneQuery);
 		}
 
+		if (endpoint != null) {
+			endpoint.acquired();
+			balancer.acquired();
+		}
 		// we're absolutely not closed, since we're brand new
 		closed = false;
 	}
 
+	/**
+	 * Connects to one of the servers of the balancer, in the order it
+	 * gives.  Only when the TCP connection cannot be made, or breaks
+	 * during login, the next server is tried.
+	 *
+	 * @return the warnings of MapiSocket.connect()
+	 * @throws IOException if connecting to all servers failed
+	 * @throws MCLParseException if bogus data is received
+	 * @throws MCLException if logging in failed
+	 */
+	private List<String> connectBalanced()
+		throws IOException, MCLParseException, MCLException
+	{
+		server.setConnectTimeout(MonetLoadBalancer.CONNECT_TIMEOUT);
+		IOException error = null;
+		for (MonetLoadBalancer.Endpoint ep : balancer.candidates()) {
+			try {
+				List<String> warnings = server.connect(ep.host, ep.port, username, password);
+				ep.connected();
+				endpoint = ep;
+				return warnings;
+			} catch (IOException e) {
+				ep.failed();
+				if (error == null) {
+					error = e;
+				} else {
+					error.addSuppressed(e);
+				}
+			}
+		}
+		throw error;
+	}
+
 	//== methods of interface Connection
 
 	/**
@@ -378,14 +554,12 @@ public class MonetConnection
 	 */
 	@Override
 	public void close() {
-		synchronized (server) {
-			for (Statement st : statements.keySet()) {
-				try {
-					st.close();
-				} catch (SQLException e) {
-					// better luck next time!
-				}
-			}
+		Runnable hook;
+		lock.lock();
+		try {
+			hook = closeHook;
+			closeHook = null;
+			closeStatements();
 			// close the socket
 			server.close();
 			// close active SendThread if any
@@ -393,8 +567,130 @@ public class MonetConnection
 				sendThread.shutdown();
 				sendThread = null;
 			}
+			// the server drops all its prepared handles with the session
+			if (preparedStatementCache != null) {
+				synchronized (preparedStatementCache) {
+					preparedStatementCache.clear();
+				}
+			}
+			if (endpoint != null) {
+				endpoint.released();
+				balancer.released();
+				endpoint = null;
+			}
 			// report ourselves as closed
 			closed = true;
+		} finally {
+			lock.unlock();
+		}
+		if (hook != null)
+			hook.run();
+	}
+
+	/**
+	 * Sets the task to run once this Connection gets closed, however
+	 * that happens.  MonetPooledConnection uses it to notice when its
+	 * physical connection is closed directly, for instance through
+	 * unwrap(), instead of through the pool.
+	 *
+	 * @param hook the task to run after closing, or null for none
+	 */
+	void setCloseHook(Runnable hook) {
+		lock.lock();
+		try {
+			closeHook = hook;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes all Statements created on this Connection which are still
+	 * open, which closes their ResultSets as well.
+	 */
+	void closeStatements() {
+		lock.lock();
+		try {
+			releaseAbandonedStatements();
+			for (StatementRef ref : statements) {
+				MonetStatement st = ref.get();
+				if (st != null)
+					st.close();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Registers a new Statement created from this Connection, such
+	 * that it is closed when this Connection is closed, and its server
+	 * side resources are freed when it is garbage collected without
+	 * being closed.  The Statement must unregister itself when it is
+	 * closed.  Before the new Statement is registered, the resources of
+	 * the abandoned Statements found so far are freed.
+	 *
+	 * When the connection property leak_detection_threshold is set, and
+	 * at least that many Statements are open, the stack trace of the
+	 * creation of the Statement is recorded.  If the Statement is
+	 * garbage collected without being closed, it is reported as a
+	 * warning on this Connection, with that stack trace as its cause.
+	 *
+	 * @param st the new Statement
+	 * @return the registration of the Statement
+	 */
+	StatementRef registerStatement(MonetStatement st) {
+		releaseAbandonedStatements();
+		Throwable creation = null;
+		if (leakDetectionThreshold > 0 && statements.size() >= leakDetectionThreshold)
+			creation = new Throwable("Statement created");
+		StatementRef ref = new StatementRef(st, abandonedStatements, creation);
+		statements.add(ref);
+		return ref;
+	}
+
+	/**
+	 * Unregisters a Statement which is closed.
+	 *
+	 * @param ref the registration of the Statement
+	 */
+	void unregisterStatement(StatementRef ref) {
+		if (statements.remove(ref)) {
+			ref.resultIds.clear();
+			ref.clear();
+		}
+	}
+
+	/**
+	 * Frees the server side resources of the Statements which were
+	 * garbage collected without being closed: it closes their results,
+	 * and releases their prepared handles.
+	 */
+	private void releaseAbandonedStatements() {
+		Reference<? extends MonetStatement> r;
+		while ((r = abandonedStatements.poll()) != null) {
+			StatementRef ref = (StatementRef)r;
+			// the Statement may have been closed in the mean time
+			if (!statements.remove(ref))
+				continue;
+			if (ref.creation != null) {
+				SQLWarning warng = new SQLWarning("Statement was not closed, see the cause for where it was created", "01M24");
+				warng.initCause(ref.creation);
+				addWarning(warng);
+			}
+			if (closed)
+				continue;
+			lock.lock();
+			try {
+				for (Integer id : ref.resultIds)
+					sendCloseCommand("close " + id);
+				if (ref.preparedId != -1)
+					sendCloseCommand("release " + ref.preparedId);
+			} catch (SQLException e) {
+				// probably server closed connection
+			} finally {
+				lock.unlock();
+			}
 		}
 	}
 
@@ -480,10 +776,7 @@ public class MonetConnection
 	@Override
 	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
 		try {
-			Statement ret = new MonetStatement(this, resultSetType, resultSetConcurrency, resultSetHoldability);
-			// store it in the map for when we close...
-			statements.put(ret, null);
-			return ret;
+			return new MonetStatement(this, resultSetType, resultSetConcurrency, resultSetHoldability);
 		} catch (IllegalArgumentException e) {
 			throw new SQLException(e.toString(), "M0M03");
 		}
@@ -811,15 +1104,37 @@ public class MonetConnection
 		throws SQLException
 	{
 		try {
-			PreparedStatement ret = new MonetPreparedStatement(
-				this,
-				resultSetType,
-				resultSetConcurrency,
-				resultSetHoldability,
-				sql
-			);
-			// store it in the map for when we close...
-			statements.put(ret, null);
+			PreparedStatement ret = null;
+			String cacheKey = null;
+			if (preparedStatementCache != null) {
+				// reuse the server-side handle of an earlier prepared
+				// statement of the same query when we kept one
+				cacheKey = resultSetType + ":" + sql;
+				MonetPreparedStatement.Handle handle;
+				synchronized (preparedStatementCache) {
+					handle = preparedStatementCache.remove(cacheKey);
+				}
+				if (handle != null) {
+					ret = new MonetPreparedStatement(
+						this,
+						resultSetType,
+						resultSetConcurrency,
+						resultSetHoldability,
+						handle,
+						cacheKey
+					);
+				}
+			}
+			if (ret == null) {
+				ret = new MonetPreparedStatement(
+					this,
+					resultSetType,
+					resultSetConcurrency,
+					resultSetHoldability,
+					sql,
+					cacheKey
+				);
+			}
 			return ret;
 		} catch (IllegalArgumentException e) {
 			throw new SQLException(e.toString(), "M0M03");
@@ -1290,6 +1605,14 @@ public class MonetConnection
 	 * The query submitted by the driver to validate the connection
 	 * shall be executed in the context of the current transaction.
 	 *
+	 * Instead of a query, a single command which changes nothing is
+	 * sent: for SQL it sets the reply size to the value the session
+	 * already has, for MAL it is an empty statement.  Any reply of the
+	 * server validates the connection.  The timeout covers waiting for
+	 * another thread using the connection, and is applied to the socket
+	 * rather than to the session; when it expires while waiting for the
+	 * server the connection is closed, as its state is unknown by then.
+	 *
 	 * @param timeout The time in seconds to wait for the database
 	 *        operation used to validate the connection to complete. If
 	 *        the timeout period expires before the operation completes,
@@ -1303,53 +1626,49 @@ public class MonetConnection
 	public boolean isValid(int timeout) throws SQLException {
 		if (timeout < 0)
 			throw new SQLException("timeout is less than 0", "M1M05");
-		if (closed)
-			return false;
 
-		// ping db using query: select 1;
-		Statement stmt = null;
-		ResultSet rs = null;
-		boolean isValid = false;
+		final long deadline = System.currentTimeMillis() + timeout * 1000L;
 		try {
-			stmt = createStatement();
-			if (stmt != null) {
-				int original_timeout = stmt.getQueryTimeout();
-				if (timeout > 0 && original_timeout != timeout) {
-					// we need to change the requested timeout for this test query
-					stmt.setQueryTimeout(timeout);
-				}
-				rs = stmt.executeQuery("SELECT 1");
-				if (rs != null && rs.next()) {
-					isValid = true;
-				}
-				if (timeout > 0 && original_timeout != timeout) {
-					// restore the original server timeout value
-					stmt.setQueryTimeout(original_timeout);
-				}
+			if (timeout > 0) {
+				if (!lock.tryLock(timeout, TimeUnit.SECONDS))
+					return false;
+			} else {
+				lock.lock();
 			}
-		} catch (SQLException se) {
-			String msg = se.getMessage();
-			// System.out.println(se.getSQLState() + " Con.isValid(): " + msg);
-			if (msg != null && msg.equalsIgnoreCase("Current transaction is aborted (please ROLLBACK)")) {
-				// Must use equalsIgnoreCase() here because up to Jul2017 release 'Current' was 'current' so with lowercase c.
-				// It changed to 'Current' after Jul2017 release. We need to support all server versions.
-				// SQLState = 25005
-				isValid = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		try {
+			if (closed)
+				return false;
+			int soTimeout = server.getSoTimeout();
+			if (timeout > 0)
+				server.setSoTimeout((int)Math.max(deadline - System.currentTimeMillis(), 1));
+			try {
+				// skip what is left of a previous result
+				in.waitForPrompt();
+				if (lang == LANG_SQL) {
+					out.writeLine(commandTempl[0] + "reply_size " + curReplySize);
+				} else {
+					out.writeLine(queryTempl[1]);
+				}
+				// an error is a reply as well
+				in.setLineType(null);
+				in.waitForPrompt();
+			} finally {
+				if (timeout > 0)
+					server.setSoTimeout(soTimeout);
 			}
-			/* ignore stmt errors/exceptions, we are only testing if the connection is still alive and usable */
+			return true;
+		} catch (SocketTimeoutException e) {
+			close(); // JDBC 4.1 semantics, abort()
+			return false;
+		} catch (IOException e) {
+			return false;
 		} finally {
-			if (rs != null) {
-				try {
-					rs.close();
-				} catch (Exception e2) { /* ignore error */ }
-			}
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (Exception e2) { /* ignore error */ }
-			}
+			lock.unlock();
 		}
-		return isValid;
 	}
 
 	/**
@@ -1452,7 +1771,13 @@ public class MonetConnection
 		    name.equals("debug") ||
 		    name.equals("hash") ||
 		    name.equals("treat_blob_as_binary") ||
-		    name.equals("treat_clob_as_varchar"))
+		    name.equals("treat_clob_as_varchar") ||
+		    name.equals("dedup_strings") ||
+		    name.equals("prepared_statement_cache_size") ||
+		    name.equals("batch_flush_size") ||
+		    name.equals("leak_detection_threshold") ||
+		    name.equals("load_balance") ||
+		    name.equals("health_check_interval"))
 		{
 			conn_props.setProperty(name, value);
 		} else {
@@ -1514,7 +1839,7 @@ public class MonetConnection
 
 		Statement st = createStatement();
 		try {
-			st.execute("SET SCHEMA \"" + schema + "\"");
+			st.execute("SET SCHEMA " + quoteIdentifier(schema));
 		} finally {
 			st.close();
 		}
@@ -1641,6 +1966,285 @@ public class MonetConnection
 	//== end methods of interface java.sql.Connection
 
 
+	//== MonetDB specific extensions
+
+	/**
+	 * Loads data into a table with the given COPY INTO ... FROM STDIN
+	 * query, for example
+	 * <pre>
+	 * COPY INTO mytable FROM STDIN USING DELIMITERS ',','\n','"'
+	 * </pre>
+	 * The data is read from the given Reader and streamed to the
+	 * server in blocks, hence it never needs to fit in memory as a
+	 * whole.  Nothing is sent when the server rejects the query.
+	 *
+	 * The query should not specify a number of records (COPY n RECORDS
+	 * INTO), as the server would then execute the data following these
+	 * records as SQL.  If reading the data fails, the records sent up
+	 * to that point are loaded and an SQLException is thrown, when
+	 * auto-commit is disabled they can still be rolled back.
+	 *
+	 * @param sql the COPY INTO ... FROM STDIN query
+	 * @param data the records to load, in the format given by the query
+	 * @return the number of rows loaded
+	 * @throws SQLException if a database access error occurs or
+	 *         reading the data fails
+	 */
+	public long copyIn(String sql, Reader data) throws SQLException {
+		if (data == null)
+			throw new SQLException("Missing data to load", "M1M05");
+		MonetStatement st = (MonetStatement)createStatement();
+		try {
+			if (st.internalCopyIn(sql, data))
+				throw new SQLException("Query produced a ResultSet instead of an update count", "M1M05");
+			return st.getUpdateCount();
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * Loads data into a table with the given COPY INTO ... FROM STDIN
+	 * query.  The data is read from the given InputStream, which must
+	 * be UTF-8 encoded.
+	 *
+	 * @param sql the COPY INTO ... FROM STDIN query
+	 * @param data the records to load, in the format given by the query
+	 * @return the number of rows loaded
+	 * @throws SQLException if a database access error occurs or
+	 *         reading the data fails
+	 * @see #copyIn(String, Reader)
+	 */
+	public long copyIn(String sql, InputStream data) throws SQLException {
+		if (data == null)
+			throw new SQLException("Missing data to load", "M1M05");
+		try {
+			return copyIn(sql, new InputStreamReader(data, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e.toString());
+		}
+	}
+
+	/**
+	 * Exports data with the given COPY ... INTO STDOUT query, for
+	 * example
+	 * <pre>
+	 * COPY SELECT * FROM mytable INTO STDOUT USING DELIMITERS ',','\n','"'
+	 * </pre>
+	 * The delimited output of the server is copied as is, in UTF-8, to
+	 * the given OutputStream.  It is not parsed into rows and values,
+	 * hence the export is limited by the network rather than by the
+	 * client.
+	 *
+	 * Note that the output of the server is not protocol framed: when
+	 * the very first line of the output starts with a '!', it is taken
+	 * as error message of the server.
+	 *
+	 * @param sql the COPY ... INTO STDOUT query
+	 * @param data the stream to write the output to
+	 * @return the number of rows written, as reported by the server,
+	 *         or else the number of lines written
+	 * @throws SQLException if a database access error occurs or
+	 *         writing to the stream fails
+	 */
+	public long copyOut(String sql, OutputStream data) throws SQLException {
+		if (closed)
+			throw new SQLException("Cannot call on closed Connection", "M1M20");
+		if (data == null)
+			throw new SQLException("Missing stream to write to", "M1M05");
+
+		lock.lock();
+		try {
+			try {
+				in.waitForPrompt();
+				writeQuery(out, queryTempl, sql, null);
+				try {
+					return readCopyOut(data);
+				} finally {
+					// the whole response, including the prompt, was read
+					// past the BufferedMCLReader
+					in.setLineType(".");
+				}
+			} catch (SocketTimeoutException e) {
+				close(); // JDBC 4.1 semantics, abort()
+				throw new SQLNonTransientConnectionException("connection timed out", "08M33");
+			} catch (IOException e) {
+				closed = true;
+				throw new SQLNonTransientConnectionException(e.getMessage() + " (mserver5 still alive?)", "08006");
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Exports data with the given COPY ... INTO STDOUT query to the
+	 * given Writer.
+	 *
+	 * @param sql the COPY ... INTO STDOUT query
+	 * @param data the Writer to write the output to
+	 * @return the number of rows written, as reported by the server,
+	 *         or else the number of lines written
+	 * @throws SQLException if a database access error occurs or
+	 *         writing to the Writer fails
+	 * @see #copyOut(String, OutputStream)
+	 */
+	public long copyOut(String sql, Writer data) throws SQLException {
+		if (data == null)
+			throw new SQLException("Missing stream to write to", "M1M05");
+		DecodingOutputStream dos = new DecodingOutputStream(data);
+		long rows = copyOut(sql, dos);
+		try {
+			dos.finish();
+		} catch (IOException e) {
+			throw new SQLException("failed to write to stream: " + e.getMessage(), "M1M25");
+		}
+		return rows;
+	}
+
+	/**
+	 * Copies the raw response of a COPY ... INTO STDOUT query to the
+	 * given OutputStream.  The last line of the response is held back,
+	 * as it may be the update count of the query instead of data.  When
+	 * writing to the OutputStream fails, the rest of the response is
+	 * still read to keep the connection usable.
+	 *
+	 * @param data the stream to write the output to
+	 * @return the number of rows or lines written
+	 * @throws IOException if reading from the server fails
+	 * @throws SQLException if the server reports an error or writing
+	 *         to the stream fails
+	 */
+	private long readCopyOut(OutputStream data) throws IOException, SQLException {
+		byte[] buf = new byte[MapiSocket.BLOCK];
+		byte[] last = new byte[256];
+		int lastLen = 0;
+		long lines = 0;
+		boolean first = true;
+		IOException writeError = null;
+		int len;
+		while ((len = server.readResponse(buf, 0, buf.length)) != -1) {
+			if (len == 0)
+				continue;
+			if (first) {
+				first = false;
+				if (buf[0] == '!')
+					throw readCopyOutError(buf, len);
+			}
+			// a completed last line is followed by more, write it
+			if (lastLen > 0 && last[lastLen - 1] == '\n') {
+				if (writeError == null) {
+					try {
+						data.write(last, 0, lastLen);
+					} catch (IOException e) {
+						writeError = e;
+					}
+				}
+				lines++;
+				lastLen = 0;
+			}
+			// find the start of the last line in this block
+			int start = len - 1;
+			if (buf[start] == '\n')
+				start--;
+			while (start >= 0 && buf[start] != '\n')
+				start--;
+			start++;
+			if (start > 0) {
+				if (writeError == null) {
+					try {
+						if (lastLen > 0)
+							data.write(last, 0, lastLen);
+						data.write(buf, 0, start);
+					} catch (IOException e) {
+						writeError = e;
+					}
+				}
+				for (int i = 0; i < start; i++) {
+					if (buf[i] == '\n')
+						lines++;
+				}
+				lastLen = 0;
+			}
+			// keep the (start of the) last line
+			int rest = len - start;
+			if (lastLen + rest > last.length) {
+				byte[] tmp = new byte[Math.max(last.length * 2, lastLen + rest)];
+				System.arraycopy(last, 0, tmp, 0, lastLen);
+				last = tmp;
+			}
+			System.arraycopy(buf, start, last, lastLen, rest);
+			lastLen += rest;
+		}
+
+		if (lastLen > 0) {
+			String tail = null;
+			if (last[0] == '&' || last[0] == '!')
+				tail = new String(last, 0, lastLen, "UTF-8").trim();
+			if (tail != null && tail.startsWith("&2 ")) {
+				// the update count of the query
+				int end = tail.indexOf(' ', 3);
+				try {
+					lines = Long.parseLong(end > 0 ? tail.substring(3, end) : tail.substring(3));
+				} catch (NumberFormatException e) {
+					throw new SQLException("protocol violation, unexpected line: " + tail, "M0M10");
+				}
+			} else if (tail != null && tail.startsWith("!")) {
+				throw readCopyOutError(last, lastLen);
+			} else {
+				if (writeError == null) {
+					try {
+						data.write(last, 0, lastLen);
+					} catch (IOException e) {
+						writeError = e;
+					}
+				}
+				if (last[lastLen - 1] == '\n')
+					lines++;
+			}
+		}
+		if (writeError != null)
+			throw new SQLException("failed to write to stream: " + writeError.getMessage(), "M1M25");
+		return lines;
+	}
+
+	/**
+	 * Reads the rest of the response of a COPY ... INTO STDOUT query
+	 * which starts with the given error message of the server.
+	 *
+	 * @param buf the start of the error message
+	 * @param len the number of bytes in buf
+	 * @return the error(s) of the server as SQLException
+	 * @throws IOException if reading from the server fails
+	 */
+	private SQLException readCopyOutError(byte[] buf, int len) throws IOException {
+		ByteArrayOutputStream msg = new ByteArrayOutputStream();
+		msg.write(buf, 0, len);
+		byte[] rest = new byte[MapiSocket.BLOCK];
+		int n;
+		while ((n = server.readResponse(rest, 0, rest.length)) != -1)
+			msg.write(rest, 0, n);
+
+		SQLException ret = null;
+		for (String line : msg.toString("UTF-8").split("\n")) {
+			if (!line.startsWith("!"))
+				continue;
+			SQLException err;
+			if (line.length() >= 7 && line.charAt(6) == '!') {
+				err = new SQLException(line.substring(7), line.substring(1, 6));
+			} else {
+				err = new SQLException(line.substring(1), "22000");
+			}
+			if (ret == null) {
+				ret = err;
+			} else {
+				ret.setNextException(err);
+			}
+		}
+		return ret;
+	}
+
+
 	/**
 	 * @return the MonetDB JDBC Connection URL (without user name and password).
 	 * Defined as public because it is called from: MonetDatabaseMetaData.java getURL()
@@ -1649,6 +2253,8 @@ public class MonetConnection
 		String language = "";
 		if (lang == LANG_MAL)
 			language = "?language=mal";
+		if (balancer != null)
+			return MonetDriver.MONETURL + balancer + "/" + database + language;
 		return MonetDriver.MONETURL + hostname + ":" + port + "/" + database + language;
 	}
 
@@ -1670,6 +2276,66 @@ public class MonetConnection
 		return treatClobAsVarChar;
 	}
 
+	/**
+	 * @return whether repeating values of character columns in a
+	 * ResultSet should share a single String object.  This reduces the
+	 * memory use for columns with a low number of distinct values.
+	 */
+	boolean dedupStrings() {
+		return dedupStrings;
+	}
+
+	/**
+	 * @return the number of characters of batched statements at which
+	 * a Statement sends them to the server, before executeBatch() is
+	 * called.  0 means they are only sent by executeBatch().
+	 */
+	int getBatchFlushSize() {
+		return batchFlushSize;
+	}
+
+	/**
+	 * Keeps the server-side handle of a closed PreparedStatement for
+	 * reuse by a next prepareStatement() call for the same query.  When
+	 * the cache is full, the least recently used handle is released on
+	 * the server.  A handle prepared before the cache was last emptied
+	 * by a SET, a DDL statement or resetSession() is not kept, as it
+	 * may refer to another schema or to objects which changed since.
+	 *
+	 * @param cacheKey the key of the query the handle was prepared for
+	 * @param handle the server-side handle with its metadata
+	 * @return false if the handle was not kept and should be released
+	 *         by the caller
+	 */
+	boolean cachePreparedHandle(String cacheKey, MonetPreparedStatement.Handle handle) {
+		if (preparedStatementCache == null || closed)
+			return false;
+		MonetPreparedStatement.Handle evicted = null;
+		synchronized (preparedStatementCache) {
+			if (handle.generation != preparedHandleGeneration)
+				return false;
+			// a second statement for the same query was prepared while
+			// the first was in use, only keep the first one
+			if (preparedStatementCache.containsKey(cacheKey))
+				return false;
+			preparedStatementCache.put(cacheKey, handle);
+			if (preparedStatementCache.size() > preparedStatementCacheSize) {
+				Iterator<MonetPreparedStatement.Handle> it = preparedStatementCache.values().iterator();
+				evicted = it.next();
+				it.remove();
+			}
+		}
+		// release outside the lock on the cache, as this needs the server
+		if (evicted != null) {
+			try {
+				sendControlCommand("release " + evicted.id);
+			} catch (SQLException e) {
+				// probably server closed connection
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Sends the given string to MonetDB as special transaction command.
 	 * All possible returned information is discarded.
@@ -1680,7 +2346,7 @@ public class MonetConnection
 	 */
 	private void sendTransactionCommand(String command) throws SQLException {
 		// create a container for the result
-		ResponseList l = new ResponseList(0, 0, ResultSet.FETCH_FORWARD, ResultSet.CONCUR_READ_ONLY);
+		ResponseList l = new ResponseList(0, 0, -1, ResultSet.FETCH_FORWARD, ResultSet.CONCUR_READ_ONLY);
 		// send the appropriate query string to the database
 		try {
 			l.processQuery(command);
@@ -1699,7 +2365,8 @@ public class MonetConnection
 	 * @throws SQLException if an IO exception or a database error occurs
 	 */
 	void sendIndependentCommand(String command) throws SQLException {
-		synchronized (server) {
+		lock.lock();
+		try {
 			try {
 				out.writeLine(
 						(queryTempl[0] == null ? "" : queryTempl[0]) +
@@ -1714,6 +2381,8 @@ public class MonetConnection
 			} catch (IOException e) {
 				throw new SQLNonTransientConnectionException(e.getMessage(), "08000");
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -1728,7 +2397,8 @@ public class MonetConnection
 	 */
 	void sendControlCommand(String command) throws SQLException {
 		// send X command
-		synchronized (server) {
+		lock.lock();
+		try {
 			try {
 				out.writeLine(
 						(commandTempl[0] == null ? "" : commandTempl[0]) +
@@ -1743,34 +2413,428 @@ public class MonetConnection
 			} catch (IOException e) {
 				throw new SQLNonTransientConnectionException(e.getMessage(), "08000");
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	/**
-	 * Adds a warning to the pile of warnings this Connection object
-	 * has.  If there were no warnings (or clearWarnings was called)
-	 * this warning will be the first, otherwise this warning will get
-	 * appended to the current warning.
+	 * Sends the query which changes the query timeout of the session,
+	 * if the given value differs from the value known to us.  The reply
+	 * is not read: the query is meant to go along with the next query,
+	 * such that both take a single round trip.  If this method returns
+	 * true, the caller has to call receiveQueryTimeout() before it
+	 * reads the reply of that next query.  The caller must hold the
+	 * lock of this Connection.
 	 *
-	 * @param reason the warning message
+	 * @param seconds the query timeout to set, -1 to keep the current one
+	 * @return whether the query was sent
+	 * @throws IOException if an IO exception occurs while talking to the server
 	 */
-	void addWarning(String reason, String sqlstate) {
-		SQLWarning warng = new SQLWarning(reason, sqlstate);
-		if (warnings == null) {
-			warnings = warng;
-		} else {
-			warnings.setNextWarning(warng);
-		}
+	private boolean sendQueryTimeout(int seconds) throws IOException {
+		if (lang != LANG_SQL || seconds < 0 || seconds == curQueryTimeout)
+			return false;
+		// CALL "sys"."settimeout"(int_value)
+		out.writeLine(queryTempl[0] + "CALL \"sys\".\"settimeout\"(" + seconds + ")" + queryTempl[1]);
+		curQueryTimeout = seconds;
+		return true;
 	}
 
-	/** the default number of rows that are (attempted to) read at once */
-	private static final int DEF_FETCHSIZE = 250;
-	/** The sequence counter */
-	private static int seqCounter = 0;
-
-	/** An optional thread that is used for sending large queries */
-	private SendThread sendThread = null;
-
+	/**
+	 * Reads the reply to the query sent by sendQueryTimeout().  The
+	 * query which went along with it has been sent already, hence a
+	 * failure is not thrown but added as warning to this Connection.
+	 *
+	 * @throws IOException if an IO exception occurs while talking to the server
+	 */
+	private void receiveQueryTimeout() throws IOException {
+		String error = in.waitForPrompt();
+		if (error != null) {
+			// we don't know which timeout the session has now
+			curQueryTimeout = -1;
+			addWarning("Unable to set the query timeout: " + error.substring(6), error.substring(0, 5));
+		}
+	}
+
+	/**
+	 * Restores the session to the state it had when this Connection was
+	 * set up, such that a connection pool can hand it out again: rolls
+	 * back the transaction in progress, enables auto-commit mode, and
+	 * restores the query timeout, schema, role and time zone of the
+	 * session.  Only what the driver knows to have changed is restored,
+	 * and all of it is sent at once, so the reset takes at most one
+	 * round trip to the server.
+	 *
+	 * The driver notices changes to the schema, role and time zone by
+	 * the SET statements executed on its Statements, among which the
+	 * one of setSchema().  The reply size is not restored, as the
+	 * driver sets it along with each query which needs another one.
+	 * When the schema is restored, the prepared statement handles kept
+	 * for reuse are released, as their names may refer to the schema
+	 * in use when they were prepared.
+	 *
+	 * @throws SQLException if a database access error occurs or this
+	 *         method is called on a closed connection
+	 */
+	public void resetSession() throws SQLException {
+		if (closed)
+			throw new SQLException("Cannot call on closed Connection", "M1M20");
+		clearWarnings();
+		if (lang != LANG_SQL)
+			return;
+
+		lock.lock();
+		try {
+			String error = null;
+			try {
+				// skip what is left of a previous result
+				in.waitForPrompt();
+
+				List<String> queries = new ArrayList<String>();
+				List<String> commands = new ArrayList<String>();
+				if (!autoCommit) {
+					queries.add("ROLLBACK");
+					commands.add("auto_commit 1");
+				}
+				if (sessionSettingsChanged) {
+					if (initialSchema != null)
+						queries.add("SET SCHEMA " + quoteIdentifier(initialSchema));
+					if (initialRole != null)
+						queries.add("SET ROLE " + quoteIdentifier(initialRole));
+					queries.add(timeZoneQuery);
+					for (Integer id : takePreparedHandles())
+						commands.add("release " + id);
+				}
+				for (String q : queries)
+					out.writeLine(queryTempl[0] + q + queryTempl[1]);
+				for (String c : commands)
+					out.writeLine(commandTempl[0] + c);
+				boolean timeoutSent = sendQueryTimeout(0);
+
+				// the replies come in the order of the messages
+				int replies = queries.size() + commands.size();
+				for (int i = 0; i < replies; i++) {
+					in.setLineType(null);
+					String e = in.waitForPrompt();
+					if (e != null && error == null)
+						error = e;
+				}
+				if (timeoutSent) {
+					in.setLineType(null);
+					receiveQueryTimeout();
+				}
+			} catch (SocketTimeoutException e) {
+				close(); // JDBC 4.1 semantics, abort()
+				throw new SQLNonTransientConnectionException("connection timed out", "08M33");
+			} catch (IOException e) {
+				throw new SQLNonTransientConnectionException(e.getMessage(), "08000");
+			}
+			if (error != null)
+				throw new SQLException(error.substring(6), error.substring(0, 5));
+			autoCommit = true;
+			sessionSettingsChanged = false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes note of a statement which is about to be executed.  A SET
+	 * statement may change the schema, role or time zone of the session,
+	 * which resetSession() then restores.  Before the first one, the
+	 * schema and role the session started with are retrieved.
+	 *
+	 * A SET statement may change the schema the names in a prepared
+	 * query refer to, and a CREATE, ALTER or DROP statement the objects
+	 * they refer to, hence these release the handles kept for reuse by
+	 * prepareStatement().
+	 *
+	 * @param sql the statement to be executed
+	 * @throws SQLException if retrieving the schema and role fails
+	 */
+	void noteStatement(String sql) throws SQLException {
+		if (lang != LANG_SQL)
+			return;
+		boolean set = startsWithKeyword(sql, "SET");
+		if (set || startsWithKeyword(sql, "CREATE") ||
+				startsWithKeyword(sql, "ALTER") || startsWithKeyword(sql, "DROP"))
+			releasePreparedHandles();
+		if (!set || sessionSettingsChanged)
+			return;
+		if (initialSchema == null) {
+			Statement st = createStatement();
+			ResultSet rs = null;
+			try {
+				rs = st.executeQuery("SELECT CURRENT_SCHEMA, CURRENT_ROLE");
+				if (rs.next()) {
+					initialSchema = rs.getString(1);
+					initialRole = rs.getString(2);
+				}
+			} finally {
+				if (rs != null)
+					rs.close();
+				st.close();
+			}
+		}
+		sessionSettingsChanged = true;
+	}
+
+	/**
+	 * Returns whether the given statement starts with the given keyword.
+	 *
+	 * @param sql the statement to check
+	 * @param keyword the keyword, in upper case
+	 * @return whether the statement starts with the keyword
+	 */
+	private static boolean startsWithKeyword(String sql, String keyword) {
+		int len = sql.length();
+		int n = keyword.length();
+		int i = 0;
+		while (i < len && Character.isWhitespace(sql.charAt(i)))
+			i++;
+		return sql.regionMatches(true, i, keyword, 0, n) &&
+			(i + n == len || Character.isWhitespace(sql.charAt(i + n)));
+	}
+
+	/**
+	 * Returns the current generation of prepared handles, to be kept
+	 * with a newly prepared handle.
+	 *
+	 * @return the generation
+	 */
+	int getPreparedHandleGeneration() {
+		if (preparedStatementCache == null)
+			return 0;
+		synchronized (preparedStatementCache) {
+			return preparedHandleGeneration;
+		}
+	}
+
+	/**
+	 * Empties the cache of prepared statement handles, and returns the
+	 * ids of the handles it held.  The handles of PreparedStatements
+	 * which are still open are not kept when these are closed.
+	 *
+	 * @return the ids of the handles, which are to be released
+	 */
+	private List<Integer> takePreparedHandles() {
+		List<Integer> ids = new ArrayList<Integer>();
+		if (preparedStatementCache == null)
+			return ids;
+		synchronized (preparedStatementCache) {
+			for (MonetPreparedStatement.Handle h : preparedStatementCache.values())
+				ids.add(h.id);
+			preparedStatementCache.clear();
+			preparedHandleGeneration++;
+		}
+		return ids;
+	}
+
+	/**
+	 * Releases the handles kept for reuse by prepareStatement() on the
+	 * server, all in one round trip.
+	 *
+	 * @throws SQLException if an IO exception occurs
+	 */
+	private void releasePreparedHandles() throws SQLException {
+		List<Integer> ids = takePreparedHandles();
+		if (ids.isEmpty())
+			return;
+		lock.lock();
+		try {
+			// skip what is left of a previous result
+			in.waitForPrompt();
+			for (Integer id : ids)
+				out.writeLine(commandTempl[0] + "release " + id);
+			// the handles are gone, or will be with the session
+			for (int i = 0; i < ids.size(); i++) {
+				in.setLineType(null);
+				in.waitForPrompt();
+			}
+		} catch (SocketTimeoutException e) {
+			close(); // JDBC 4.1 semantics, abort()
+			throw new SQLNonTransientConnectionException("connection timed out", "08M33");
+		} catch (IOException e) {
+			throw new SQLNonTransientConnectionException(e.getMessage(), "08000");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the given name as delimited SQL identifier.
+	 *
+	 * @param name the name to quote
+	 * @return the name between double quotes
+	 */
+	static String quoteIdentifier(String name) {
+		return "\"" + name.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Aborts the query in progress, from another thread than the one
+	 * executing it.  The socket to the server is closed, which makes
+	 * the executing thread fail with an IOException, and ends the
+	 * session on the server.  The connection cannot be used any more
+	 * after this, the executing thread is expected to close it.
+	 */
+	void abortQuery() {
+		server.abort();
+	}
+
+	/**
+	 * Schedules the given task on the timer which the driver shares
+	 * for all its query timeouts.  The timer is created on first use,
+	 * and its thread does not keep the JVM alive.
+	 *
+	 * @param task the task to run when the timeout expires
+	 * @param millis the timeout in milliseconds
+	 * @return the handle to cancel the task with
+	 */
+	static ScheduledFuture<?> scheduleTimeout(Runnable task, long millis) {
+		synchronized (MonetConnection.class) {
+			if (timeoutTimer == null) {
+				timeoutTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "MonetDB query timeout");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				// most timeouts are cancelled, don't keep them around
+				timeoutTimer.setRemoveOnCancelPolicy(true);
+			}
+		}
+		return timeoutTimer.schedule(task, millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sends the given command to close a result at the server side.
+	 * While a pipeline is in progress the command cannot be sent, as
+	 * the server is still reading the pipelined queries, hence it is
+	 * postponed till the pipeline has ended.
+	 *
+	 * @param command the exact string to send to MonetDB
+	 * @throws SQLException if an IO exception or a database error occurs
+	 */
+	private void sendCloseCommand(String command) throws SQLException {
+		lock.lock();
+		try {
+			if (pipelinedCloseCommands != null) {
+				pipelinedCloseCommands.add(command);
+			} else {
+				sendControlCommand(command);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sends the given queries to the server without waiting for their
+	 * results in between.  A SendThread streams the queries, each as a
+	 * message of its own, while the calling thread reads their results.
+	 * For each query, in order, the receiver is called to read the
+	 * results of that query using ResponseList.receiveQuery().  This
+	 * keeps both the client and the server busy, instead of having
+	 * them wait on each other for every query.<br />
+	 * The queries may not ask the server for more input, such as COPY
+	 * INTO ... FROM STDIN does.
+	 *
+	 * @param queries the queries to execute
+	 * @param queryTimeout the query timeout to set for the queries, -1 to keep the current one
+	 * @param receiver the receiver of the results of each query
+	 * @throws SQLException if an IO exception or a database error
+	 *         occurs which is not handled by the receiver
+	 */
+	void executePipelined(List<String> queries, int queryTimeout, PipelineReceiver receiver)
+		throws SQLException
+	{
+		lock.lock();
+		try {
+			boolean timeoutSent;
+			try {
+				// make sure we're ready to send, like ResponseList does
+				in.waitForPrompt();
+				timeoutSent = sendQueryTimeout(queryTimeout);
+			} catch (SocketTimeoutException e) {
+				close(); // JDBC 4.1 semantics, abort()
+				throw new SQLNonTransientConnectionException("connection timed out", "08M33");
+			} catch (IOException e) {
+				throw new SQLNonTransientConnectionException(e.getMessage(), "08000");
+			}
+
+			if (sendThread == null)
+				sendThread = new SendThread(out);
+			// keep our own reference, closing the connection drops it
+			SendThread st = sendThread;
+			String error;
+			List<String> closes = new ArrayList<String>();
+			pipelinedCloseCommands = closes;
+			try {
+				st.runQueries(queryTempl, queries);
+				if (timeoutSent) {
+					try {
+						receiveQueryTimeout();
+					} catch (IOException e) {
+						throw new SQLNonTransientConnectionException(e.getMessage(), "08000");
+					}
+				}
+				for (int i = 0; i < queries.size(); i++)
+					receiver.receive(i);
+			} finally {
+				// wait for the SendThread to finish sending
+				error = st.getErrors();
+				pipelinedCloseCommands = null;
+			}
+			for (String command : closes) {
+				try {
+					sendControlCommand(command);
+				} catch (SQLException e) {
+					// probably a connection error...
+				}
+			}
+			if (error != null)
+				throw new SQLNonTransientConnectionException(error, "08000");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds a warning to the pile of warnings this Connection object
+	 * has.  If there were no warnings (or clearWarnings was called)
+	 * this warning will be the first, otherwise this warning will get
+	 * appended to the current warning.
+	 *
+	 * @param reason the warning message
+	 */
+	void addWarning(String reason, String sqlstate) {
+		addWarning(new SQLWarning(reason, sqlstate));
+	}
+
+	private void addWarning(SQLWarning warng) {
+		if (warnings == null) {
+			warnings = warng;
+		} else {
+			warnings.setNextWarning(warng);
+		}
+	}
+
+	/** the default number of rows that are (attempted to) read at once */
+	private static final int DEF_FETCHSIZE = 250;
+	/** The sequence counter */
+	private static int seqCounter = 0;
+
+	/** An optional thread that is used for sending large queries */
+	private SendThread sendThread = null;
+	/** The timer which enforces the query timeouts of all Statements */
+	private static ScheduledThreadPoolExecutor timeoutTimer = null;
+	/** The close commands postponed till the end of the pipeline in
+	 *  progress, or null if there is no pipeline in progress */
+	private List<String> pipelinedCloseCommands = null;
+
 	/**
 	 * A Response is a message sent by the server to indicate some
 	 * action has taken place, and possible results of that action.
@@ -1920,6 +2984,8 @@ public class MonetConnection
 			seqnr = seq;
 			closed = false;
 			destroyOnClose = id > 0 && tuplecount > rowcount;
+			if (destroyOnClose && parent.registration != null)
+				parent.registration.resultIds.add(Integer.valueOf(id));
 
 			this.id = id;
 			this.tuplecount = tuplecount;
@@ -2214,10 +3280,12 @@ public class MonetConnection
 			// was larger than the reply size
 			try {
 				if (destroyOnClose)
-					sendControlCommand("close " + id);
+					sendCloseCommand("close " + id);
 			} catch (SQLException e) {
 				// probably a connection error...
 			}
+			if (destroyOnClose && parent.registration != null)
+				parent.registration.resultIds.remove(Integer.valueOf(id));
 
 			// close the data block associated with us
 			for (int i = 1; i < resultBlocks.length; i++) {
@@ -2451,6 +3519,32 @@ public class MonetConnection
 	}
 	// }}}
 
+	/**
+	 * The registration of a Statement created from this Connection.  It
+	 * refers weakly to the Statement, and holds the ids of the server
+	 * side resources of the Statement, such that these can be freed
+	 * when the Statement is garbage collected without being closed.
+	 * It holds no objects of the Statement, which would keep their
+	 * (possibly large) results in memory after the Statement is gone.
+	 */
+	// {{{ StatementRef class implementation
+	static final class StatementRef extends WeakReference<MonetStatement> {
+		/** The ids of the results of the Statement which are still
+		 *  open at the server */
+		final Set<Integer> resultIds =
+			Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		/** The id of the prepared handle of the Statement, -1 if none */
+		volatile int preparedId = -1;
+		/** The stack trace of the creation of the Statement, if recorded */
+		final Throwable creation;
+
+		StatementRef(MonetStatement st, ReferenceQueue<MonetStatement> queue, Throwable creation) {
+			super(st, queue);
+			this.creation = creation;
+		}
+	}
+	// }}}
+
 	/**
 	 * A list of Response objects.  Responses are added to this list.
 	 * Methods of this class are not synchronized.  This is left as
@@ -2462,12 +3556,17 @@ public class MonetConnection
 		private final int cachesize;
 		/** The maximum number of results for this query */
 		private final int maxrows;
+		/** The query timeout to set for this query, -1 to keep the current one */
+		private final int querytimeout;
 		/** The ResultSet type to produce */
 		private final int rstype;
 		/** The ResultSet concurrency to produce */
 		private final int rsconcur;
 		/** The sequence number of this ResponseList */
 		private final int seqnr;
+		/** The registration of the Statement executing the query, if
+		 *  any, which tracks the results left open at the server */
+		StatementRef registration;
 		/** A list of the Responses associated with the query,
 		 *  in the right order */
 		private List<Response> responses;
@@ -2477,6 +3576,10 @@ public class MonetConnection
 
 		/** The current header returned by getNextResponse() */
 		private int curResponse;
+		/** The data to send when the server asks for more input */
+		private Reader copyInData;
+		/** The error which occurred while reading copyInData, if any */
+		private IOException copyInError;
 
 		/**
 		 * Main constructor.  The query argument can either be a String
@@ -2485,17 +3588,20 @@ public class MonetConnection
 		 *
 		 * @param cachesize overall cachesize to use
 		 * @param maxrows maximum number of rows to allow in the set
+		 * @param querytimeout the query timeout in seconds to set, or -1
 		 * @param rstype the type of result sets to produce
 		 * @param rsconcur the concurrency of result sets to produce
 		 */
 		ResponseList(
 				int cachesize,
 				int maxrows,
+				int querytimeout,
 				int rstype,
 				int rsconcur
 		) throws SQLException {
 			this.cachesize = cachesize;
 			this.maxrows = maxrows;
+			this.querytimeout = querytimeout;
 			this.rstype = rstype;
 			this.rsconcur = rsconcur;
 			responses = new ArrayList<Response>();
@@ -2587,7 +3693,86 @@ public class MonetConnection
 		 * @throws SQLException if a database error occurs
 		 */
 		void processQuery(String query) throws SQLException {
-			executeQuery(queryTempl, query);
+			executeQuery(queryTempl, query, null);
+		}
+
+		/**
+		 * Executes the query written by the given QueryWriter, and
+		 * stores the Responses resulting from this query in this
+		 * ResponseList.
+		 *
+		 * @param query the writer of the query
+		 * @throws SQLException if a database error occurs
+		 */
+		void processQuery(QueryWriter query) throws SQLException {
+			executeQuery(queryTempl, null, query);
+		}
+
+		/**
+		 * Reads the Responses of a query which has already been sent
+		 * as part of a pipeline, see executePipelined(), and stores
+		 * them in this ResponseList.
+		 *
+		 * @throws SQLException if a database error occurs
+		 */
+		void receiveQuery() throws SQLException {
+			executeQuery(null, null, null);
+		}
+
+		/**
+		 * Executes the given COPY INTO ... FROM STDIN query, and
+		 * stores the Responses resulting from this query in this
+		 * ResponseList.  The data is sent when the server asks for it,
+		 * hence nothing is sent if the query fails.
+		 *
+		 * @param query the query to execute
+		 * @param data the data to load
+		 * @throws SQLException if a database error occurs or reading
+		 *         the data fails
+		 */
+		void processCopyIn(String query, Reader data) throws SQLException {
+			copyInData = data;
+			copyInError = null;
+			try {
+				executeQuery(queryTempl, query, null);
+			} finally {
+				copyInData = null;
+			}
+			if (copyInError != null)
+				throw new SQLException("failed to read from stream: " +
+						copyInError.getMessage(), "M1M25");
+		}
+
+		/**
+		 * Sends the data of a COPY INTO ... FROM STDIN to the server.
+		 * It is written in pieces to the block stream, such that it
+		 * never is in memory as a whole.  An error while reading the
+		 * data ends it, the error is reported by processCopyIn().
+		 *
+		 * @param data the data to send
+		 * @throws IOException if writing to the server fails
+		 */
+		private void writeCopyInData(Reader data) throws IOException {
+			char[] buf = new char[MapiSocket.BLOCK];
+			char last = '\n';
+			while (true) {
+				int len;
+				try {
+					len = data.read(buf);
+				} catch (IOException e) {
+					copyInError = e;
+					break;
+				}
+				if (len < 0)
+					break;
+				if (len > 0) {
+					out.write(buf, 0, len);
+					last = buf[len - 1];
+				}
+			}
+			// the last record needs its record separator
+			if (last != '\n')
+				out.write('\n');
 		}
 
 		/**
@@ -2597,62 +3782,93 @@ public class MonetConnection
 		 * @param the query to execute
 		 * @throws SQLException if a database error occurs
 		 */
-		@SuppressWarnings("fallthrough")
 		void executeQuery(String[] templ, String query)
 			throws SQLException
+		{
+			executeQuery(templ, query, null);
+		}
+
+		/**
+		 * Internal executor of queries.  The query is either given as
+		 * String or as QueryWriter, the other argument must be null.
+		 * If both are null, nothing is sent and only the Responses of
+		 * an already sent query are read.
+		 *
+		 * @param templ the template to fill in
+		 * @param query the query to execute, or null
+		 * @param queryWriter the writer of the query to execute, or null
+		 * @throws SQLException if a database error occurs
+		 */
+		@SuppressWarnings("fallthrough")
+		private void executeQuery(String[] templ, String query, QueryWriter queryWriter)
+			throws SQLException
 		{
 			boolean sendThreadInUse = false;
 			String error = null;
 
 			try {
-				synchronized (server) {
-					// make sure we're ready to send query; read data till we
-					// have the prompt it is possible (and most likely) that we
-					// already have the prompt and do not have to skip any
-					// lines.  Ignore errors from previous result sets.
-					in.waitForPrompt();
-
-					// {{{ set reply size
-					/**
-					 * Change the reply size of the server.  If the given
-					 * value is the same as the current value known to use,
-					 * then ignore this call.  If it is set to 0 we get a
-					 * prompt after the server sent it's header.
-					 */
-					int size = (cachesize == 0 ? DEF_FETCHSIZE : cachesize);
-					if (maxrows > 0 && maxrows < size)
-						size = maxrows;
-					// don't do work if it's not needed
-					if (lang == LANG_SQL && size != curReplySize && templ != commandTempl) {
-						sendControlCommand("reply_size " + size);
-
-						// store the reply size after a successful change
-						curReplySize = size;
-					}
-					// }}} set reply size
-
-					// If the query is larger than the TCP buffer size, use a
-					// special send thread to avoid deadlock with the server due
-					// to blocking behaviour when the buffer is full.  Because
-					// the server will be writing back results to us, it will
-					// eventually block as well when its TCP buffer gets full,
-					// as we are blocking an not consuming from it.  The result
-					// is a state where both client and server want to write,
-					// but block.
-					if (query.length() > MapiSocket.BLOCK) {
-						// get a reference to the send thread
-						if (sendThread == null)
-							sendThread = new SendThread(out);
-						// tell it to do some work!
-						sendThread.runQuery(templ, query);
-						sendThreadInUse = true;
-					} else {
-						// this is a simple call, which is a lot cheaper and will
-						// always succeed for small queries.
-						out.writeLine(
-								(templ[0] == null ? "" : templ[0]) +
-								query +
-								(templ[1] == null ? "" : templ[1]));
+				lock.lock();
+				try {
+					if (query != null || queryWriter != null) {
+						// make sure we're ready to send query; read data till we
+						// have the prompt it is possible (and most likely) that we
+						// already have the prompt and do not have to skip any
+						// lines.  Ignore errors from previous result sets.
+						in.waitForPrompt();
+
+						// {{{ set reply size
+						/**
+						 * Change the reply size of the server.  If the given
+						 * value is the same as the current value known to use,
+						 * then ignore this call.  If it is set to 0 we get a
+						 * prompt after the server sent it's header.
+						 */
+						int size = (cachesize == 0 ? DEF_FETCHSIZE : cachesize);
+						if (maxrows > 0 && maxrows < size)
+							size = maxrows;
+						// don't do work if it's not needed
+						if (lang == LANG_SQL && size != curReplySize && templ != commandTempl) {
+							sendControlCommand("reply_size " + size);
+
+							// store the reply size after a successful change
+							curReplySize = size;
+						}
+						// }}} set reply size
+
+						// the query timeout goes along with the query
+						boolean timeoutSent = false;
+						if (templ != commandTempl)
+							timeoutSent = sendQueryTimeout(querytimeout);
+
+						// If the query is larger than the TCP buffer size, use a
+						// special send thread to avoid deadlock with the server due
+						// to blocking behaviour when the buffer is full.  Because
+						// the server will be writing back results to us, it will
+						// eventually block as well when its TCP buffer gets full,
+						// as we are blocking an not consuming from it.  The result
+						// is a state where both client and server want to write,
+						// but block.
+						long length = (query != null) ? query.length() : queryWriter.length();
+						if (length > MapiSocket.BLOCK) {
+							// the send thread resets the state of the
+							// reader, so read the reply before it starts
+							if (timeoutSent) {
+								receiveQueryTimeout();
+								timeoutSent = false;
+							}
+							// get a reference to the send thread
+							if (sendThread == null)
+								sendThread = new SendThread(out);
+							// tell it to do some work!
+							sendThread.runQuery(templ, query, queryWriter);
+							sendThreadInUse = true;
+						} else {
+							// this is a simple call, which is a lot cheaper and will
+							// always succeed for small queries.
+							writeQuery(out, templ, query, queryWriter);
+						}
+						if (timeoutSent)
+							receiveQueryTimeout();
 					}
 
 					// go for new results
@@ -2792,6 +4008,22 @@ public class MonetConnection
 								tmpLine = in.readLine();
 								linetype = in.getLineType();
 							break;
+							case BufferedMCLReader.MORE:
+								// the server wants more input: the data
+								// of a COPY INTO ... FROM STDIN.  Skip the
+								// prompt which ends this request first.
+								in.readLine();
+								if (copyInData != null) {
+									writeCopyInData(copyInData);
+									copyInData = null;
+								}
+								// the data is followed by an empty
+								// message, which marks its end
+								out.flushLine();
+
+								tmpLine = in.readLine();
+								linetype = in.getLineType();
+							break;
 							case BufferedMCLReader.INFO:
 								addWarning(tmpLine.substring(1), "01000");
 
@@ -2822,6 +4054,8 @@ public class MonetConnection
 							break;
 						}
 					}
+				} finally {
+					lock.unlock();
 				}
 
 				// if we used the sendThread, make sure it has finished
@@ -2864,6 +4098,131 @@ public class MonetConnection
 	}
 	// }}}
 
+	/**
+	 * A query which writes itself to the server, instead of being built
+	 * into a String first.  This allows e.g. MonetPreparedStatement to
+	 * encode its parameter values straight into the buffer of the
+	 * outgoing stream.
+	 */
+	interface QueryWriter {
+		/**
+		 * Returns an upper bound of the number of characters the query
+		 * consists of.  It is used to decide whether the SendThread
+		 * is needed to send the query.
+		 *
+		 * @return the maximum length of the query
+		 */
+		long length();
+
+		/**
+		 * Writes the query to the given Writer.
+		 *
+		 * @param out the Writer to write to
+		 * @throws IOException if writing fails
+		 */
+		void writeTo(Writer out) throws IOException;
+	}
+
+	/**
+	 * The receiver of the results of the queries sent by
+	 * executePipelined().
+	 */
+	interface PipelineReceiver {
+		/**
+		 * Reads the results of the query at the given index.  The
+		 * results of the queries before it have been read already.
+		 *
+		 * @param index the index of the query in the pipeline
+		 * @throws SQLException if a database error occurs
+		 */
+		void receive(int index) throws SQLException;
+	}
+
+	/**
+	 * Writes the given query, surrounded by the given template, to the
+	 * given writer and flushes it.  The query is either given as String
+	 * or as QueryWriter, the other argument must be null.
+	 *
+	 * @param out the writer to write to
+	 * @param templ the template to fill in
+	 * @param query the query, or null
+	 * @param queryWriter the writer of the query, or null
+	 * @throws IOException if writing fails
+	 */
+	static void writeQuery(BufferedMCLWriter out, String[] templ, String query, QueryWriter queryWriter)
+		throws IOException
+	{
+		if (templ[0] != null)
+			out.write(templ[0]);
+		if (query != null) {
+			out.write(query);
+		} else {
+			queryWriter.writeTo(out);
+		}
+		if (templ[1] != null)
+			out.write(templ[1]);
+		out.flushLine();
+	}
+
+	/**
+	 * An OutputStream which decodes the UTF-8 bytes written to it and
+	 * writes the characters to a Writer.  Byte sequences which are
+	 * split over two writes are kept until they are complete.
+	 */
+	private static final class DecodingOutputStream extends OutputStream {
+		private final Writer writer;
+		private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final ByteBuffer bytes = ByteBuffer.allocate(MapiSocket.BLOCK);
+		private final CharBuffer chars = CharBuffer.allocate(MapiSocket.BLOCK);
+
+		DecodingOutputStream(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int n = Math.min(len, bytes.remaining());
+				bytes.put(b, off, n);
+				off += n;
+				len -= n;
+				bytes.flip();
+				decode(false);
+				bytes.compact();
+			}
+		}
+
+		/**
+		 * Decodes the remaining bytes and flushes the Writer.
+		 *
+		 * @throws IOException if writing fails
+		 */
+		void finish() throws IOException {
+			bytes.flip();
+			decode(true);
+			decoder.flush(chars);
+			writer.write(chars.array(), 0, chars.position());
+			chars.clear();
+			writer.flush();
+		}
+
+		private void decode(boolean endOfInput) throws IOException {
+			CoderResult cr;
+			do {
+				cr = decoder.decode(bytes, chars, endOfInput);
+				writer.write(chars.array(), 0, chars.position());
+				chars.clear();
+			} while (cr.isOverflow());
+		}
+	}
+
 	/**
 	 * A thread to send a query to the server.  When sending large
 	 * amounts of data to a server, the output buffer of the underlying
@@ -2887,6 +4246,8 @@ public class MonetConnection
 
 		private String[] templ;
 		private String query;
+		private QueryWriter queryWriter;
+		private List<String> queries;
 		private BufferedMCLWriter out;
 		private String error;
 		private int state = WAIT;
@@ -2925,13 +4286,18 @@ public class MonetConnection
 
 					// state is QUERY here
 					try {
-						out.writeLine(
-								(templ[0] == null ? "" : templ[0]) +
-								query +
-								(templ[1] == null ? "" : templ[1]));
+						if (queries != null) {
+							writeQueries(templ, queries);
+						} else {
+							writeQuery(out, templ, query, queryWriter);
+						}
 					} catch (IOException e) {
 						error = e.getMessage();
 					}
+					// drop the references, we're done with them
+					query = null;
+					queryWriter = null;
+					queries = null;
 
 					// update our state, and notify, maybe someone is waiting
 					// for us in throwErrors
@@ -2949,10 +4315,11 @@ public class MonetConnection
 		 * throwErrors()) before this method is called!
 		 *
 		 * @param templ the query template
-		 * @param query the query itself
+		 * @param query the query itself, or null
+		 * @param queryWriter the writer of the query if query is null
 		 * @throws SQLException if this SendThread is already in use
 		 */
-		public void runQuery(String[] templ, String query) throws SQLException {
+		public void runQuery(String[] templ, String query, QueryWriter queryWriter) throws SQLException {
 			sendLock.lock();
 			try {
 				if (state != WAIT)
@@ -2960,6 +4327,8 @@ public class MonetConnection
 
 				this.templ = templ;
 				this.query = query;
+				this.queryWriter = queryWriter;
+				this.error = null;
 
 				// let the thread know there is some work to do
 				state = QUERY;
@@ -2969,6 +4338,59 @@ public class MonetConnection
 			}
 		}
 
+		/**
+		 * Starts sending the given queries over the given socket, each
+		 * as a message of its own.  The queries are sent back to back,
+		 * without waiting for the server to answer them, hence the
+		 * caller must consume the responses while this thread is
+		 * sending.  Beware that the thread should be finished (can be
+		 * assured by calling getErrors()) before this method is called!
+		 *
+		 * @param templ the query template
+		 * @param queries the queries to send
+		 * @throws SQLException if this SendThread is already in use
+		 */
+		public void runQueries(String[] templ, List<String> queries) throws SQLException {
+			sendLock.lock();
+			try {
+				if (state != WAIT)
+					throw new SQLException("SendThread already in use or shutting down!", "M0M03");
+
+				this.templ = templ;
+				this.queries = queries;
+				this.error = null;
+
+				// let the thread know there is some work to do
+				state = QUERY;
+				queryAvailable.signal();
+			} finally {
+				sendLock.unlock();
+			}
+		}
+
+		/**
+		 * Writes the given queries, each completed by a flush which
+		 * ends the message.  Unlike writeQuery(), this does not reset
+		 * the state of the reader, as the responses to the earlier
+		 * queries are being read while the later ones are written.
+		 *
+		 * @param templ the query template
+		 * @param queries the queries to write
+		 * @throws IOException if writing fails
+		 */
+		private void writeQueries(String[] templ, List<String> queries)
+			throws IOException
+		{
+			for (String q : queries) {
+				if (templ[0] != null)
+					out.write(templ[0]);
+				out.write(q);
+				if (templ[1] != null)
+					out.write(templ[1]);
+				out.flush();
+			}
+		}
+
 		/**
 		 * Returns errors encountered during the sending process.
 		 *
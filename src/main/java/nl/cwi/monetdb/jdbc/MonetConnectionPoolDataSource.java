@@ -0,0 +1,89 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+package nl.cwi.monetdb.jdbc;
+
+import java.sql.SQLException;
+import java.util.Properties;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.PooledConnection;
+
+/**
+ * A ConnectionPoolDataSource suitable for the MonetDB database.
+ *
+ * This is the factory of the physical connections which the connection
+ * pool of an application server keeps.  Its properties are the ones of
+ * MonetDataSource, with in addition the standard maxStatements
+ * property: the number of prepared statements each physical connection
+ * keeps in its cache, see MonetPooledConnection.
+ */
+public class MonetConnectionPoolDataSource extends MonetDataSource implements ConnectionPoolDataSource {
+	private int maxStatements = 50;
+
+	/**
+	 * Constructor of a MonetConnectionPoolDataSource which uses default
+	 * settings for a connection.
+	 */
+	public MonetConnectionPoolDataSource() {
+		super();
+	}
+
+	/**
+	 * Attempts to establish a physical database connection that can be
+	 * used as a pooled connection.
+	 *
+	 * @return a MonetPooledConnection
+	 * @throws SQLException if connecting to the database fails
+	 */
+	@Override
+	public PooledConnection getPooledConnection() throws SQLException {
+		return getPooledConnection(null, null);
+	}
+
+	/**
+	 * Attempts to establish a physical database connection that can be
+	 * used as a pooled connection.
+	 *
+	 * @param user the username to use
+	 * @param password the password to use
+	 * @return a MonetPooledConnection
+	 * @throws SQLException if connecting to the database fails
+	 */
+	@Override
+	public PooledConnection getPooledConnection(String user, String password)
+		throws SQLException
+	{
+		Properties props = new Properties();
+		if (maxStatements > 0)
+			props.setProperty("prepared_statement_cache_size", Integer.toString(maxStatements));
+		return new MonetPooledConnection(connect(user, password, props));
+	}
+
+	/**
+	 * Gets the number of prepared statements each physical connection
+	 * keeps in its cache.
+	 *
+	 * @return the maximum number of statements, default is 50
+	 */
+	public int getMaxStatements() {
+		return maxStatements;
+	}
+
+	/**
+	 * Sets the number of prepared statements each physical connection
+	 * keeps in its cache.
+	 *
+	 * @param maxStatements the maximum number of statements, 0 means no
+	 *        statement pooling
+	 */
+	public void setMaxStatements(int maxStatements) {
+		if (maxStatements < 0)
+			throw new IllegalArgumentException("maxStatements must be >= 0");
+		this.maxStatements = maxStatements;
+	}
+}
@@ -84,14 +84,38 @@ public class MonetDataSource extends MonetWrapper implements DataSource {
 	public Connection getConnection(String username, String password)
 		throws SQLException
 	{
+		return connect(username, password, new Properties());
+	}
+
+	/**
+	 * Sets up a connection to the data source that this DataSource
+	 * object represents, with the given connection properties in
+	 * addition to the ones in the URL.  Subclasses use this to create
+	 * the connections they pool.
+	 *
+	 * @param username the username to use, or null for the one of this DataSource
+	 * @param password the password to use
+	 * @param props the additional connection properties
+	 * @return a MonetConnection
+	 * @throws SQLException if connecting to the database fails
+	 */
+	MonetConnection connect(String username, String password, Properties props)
+		throws SQLException
+	{
+		if (username == null) {
+			username = user;
+			password = this.password;
+		}
 		if (loginTimeout > 0) {
 			/// could enable Socket.setSoTimeout(int timeout) here...
 		}
-		Properties props = new Properties();
-		props.put("user", username);
-		props.put("password", password);
+		// the URL may contain them as well
+		if (username != null)
+			props.put("user", username);
+		if (password != null)
+			props.put("password", password);
 
-		return driver.connect(url, props);
+		return (MonetConnection) driver.connect(url, props);
 	}
 
 
@@ -18,6 +18,8 @@ import java.sql.RowIdLifetime;
 import java.sql.Types;
 
 import java.util.ArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A DatabaseMetaData object suitable for the MonetDB database.
@@ -32,6 +34,8 @@ public class MonetDatabaseMetaData extends MonetWrapper implements DatabaseMetaD
 	private String env_current_user;
 	private String env_monet_version;
 	private String env_max_clients;
+	/** Guards the cache above while it is filled from the server */
+	private final Lock envLock = new ReentrantLock();
 
 	public MonetDatabaseMetaData(Connection parent) {
 		con = parent;
@@ -42,42 +46,47 @@ public class MonetDatabaseMetaData extends MonetWrapper implements DatabaseMetaD
 	 * We currently fetch the env values of: current_user, monet_version and max_clients.
 	 * We cache them locally such that we do not need to query the server again and again.
 	 */
-	private synchronized void getEnvValues() throws SQLException {
-		Statement st = null;
-		ResultSet rs = null;
+	private void getEnvValues() throws SQLException {
+		envLock.lock();
 		try {
-			st = con.createStatement();
-			rs = st.executeQuery(
-				"SELECT \"name\", \"value\" FROM \"sys\".\"env\"()" +
-				" WHERE \"name\" IN ('monet_version', 'max_clients')" +
-				" UNION SELECT 'current_user' as \"name\", current_user as \"value\"");
-			if (rs != null) {
-				while (rs.next()) {
-					String prop = rs.getString("name");
-					String value = rs.getString("value");
-					if ("current_user".equals(prop)) {
-						env_current_user = value;
-					} else
-					if ("monet_version".equals(prop)) {
-						env_monet_version = value;
-					} else
-					if ("max_clients".equals(prop)) {
-						env_max_clients = value;
+			Statement st = null;
+			ResultSet rs = null;
+			try {
+				st = con.createStatement();
+				rs = st.executeQuery(
+					"SELECT \"name\", \"value\" FROM \"sys\".\"env\"()" +
+					" WHERE \"name\" IN ('monet_version', 'max_clients')" +
+					" UNION SELECT 'current_user' as \"name\", current_user as \"value\"");
+				if (rs != null) {
+					while (rs.next()) {
+						String prop = rs.getString("name");
+						String value = rs.getString("value");
+						if ("current_user".equals(prop)) {
+							env_current_user = value;
+						} else
+						if ("monet_version".equals(prop)) {
+							env_monet_version = value;
+						} else
+						if ("max_clients".equals(prop)) {
+							env_max_clients = value;
+						}
 					}
 				}
+			/* do not catch SQLException here, as we want to know it when it fails */
+			} finally {
+				if (rs != null) {
+					try {
+						rs.close();
+					} catch (SQLException e) { /* ignore */ }
+				}
+				if (st != null) {
+					try {
+						 st.close();
+					} catch (SQLException e) { /* ignore */ }
+				}
 			}
-		/* do not catch SQLException here, as we want to know it when it fails */
 		} finally {
-			if (rs != null) {
-				try {
-					rs.close();
-				} catch (SQLException e) { /* ignore */ }
-			}
-			if (st != null) {
-				try {
-					 st.close();
-				} catch (SQLException e) { /* ignore */ }
-			}
+			envLock.unlock();
 		}
 // for debug: System.out.println("Read: env_current_user: " + env_current_user + "  env_monet_version: " + env_monet_version + "  env_max_clients: " + env_max_clients);
 	}
@@ -3811,6 +3820,12 @@ public class MonetDatabaseMetaData extends MonetWrapper implements DatabaseMetaD
 		"SELECT 'hash', 128, '', 'hash methods list to use in server connection. Supported are SHA512, SHA384, SHA256, SHA1 and MD5' UNION ALL " +
 		"SELECT 'treat_blob_as_binary', 5, 'false', 'should blob columns be mapped to Types.VARBINARY instead of default Types.BLOB in ResultSets and PreparedStatements' UNION ALL " +
 		"SELECT 'treat_clob_as_varchar', 5, 'false', 'should clob columns be mapped to Types.VARCHAR instead of default Types.CLOB in ResultSets and PreparedStatements' UNION ALL " +
+		"SELECT 'dedup_strings', 5, 'false', 'should repeating values of character columns in ResultSets share one String object' UNION ALL " +
+		"SELECT 'prepared_statement_cache_size', 10, '0', 'number of server-side handles of closed PreparedStatements kept for reuse. 0 means no handles are kept' UNION ALL " +
+		"SELECT 'batch_flush_size', 10, '0', 'number of characters of batched statements at which they are sent to the server. 0 means they are sent by executeBatch' UNION ALL " +
+		"SELECT 'leak_detection_threshold', 10, '0', 'number of open Statements from which on Statements garbage collected without being closed are reported as warnings. 0 means no reports' UNION ALL " +
+		"SELECT 'load_balance', 17, 'round_robin', 'how to spread the connections over the servers of the URL: round_robin, least_connections or latency' UNION ALL " +
+		"SELECT 'health_check_interval', 10, '10', 'number of seconds between checks of the servers of the URL. 0 means no checks' UNION ALL " +
 		"SELECT 'so_timeout', 10, '0', 'timeout (in milliseconds) of communication socket. 0 means no timeout is set' " +
 		"ORDER BY \"NAME\"";
 
@@ -0,0 +1,45 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+package nl.cwi.monetdb.jdbc;
+
+import java.text.ParsePosition;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * A fast path for parsing the DATE, TIME and TIMESTAMP values sent by
+ * the server, which MonetResultSet tries before its SimpleDateFormat
+ * parsers.
+ *
+ * This is the implementation for Java 7 and up, which leaves all
+ * values to the SimpleDateFormat parsers.  The multi-release JAR also
+ * contains an implementation for Java 21 and up, from
+ * src/main/java21, which parses the common forms of these values using
+ * java.time.  Both implementations must have the same package-private
+ * API.
+ */
+final class MonetDateParser {
+	/**
+	 * Parses the date, time or timestamp at the start of the given
+	 * value in the given time zone.  On success the Calendar is set to
+	 * the parsed instant and the index of the ParsePosition to the
+	 * first character after the parsed part.  Otherwise nothing is
+	 * changed, and the caller must parse the value itself.
+	 *
+	 * @param value the value as sent by the server
+	 * @param type the java.sql.Types type to parse the value as
+	 * @param tz the time zone to interpret the value in
+	 * @param cal the Calendar to set to the parsed instant
+	 * @param pos the ParsePosition to set to the end of the parsed part
+	 * @return whether the value was parsed
+	 */
+	boolean parse(String value, int type, TimeZone tz, Calendar cal, ParsePosition pos) {
+		return false;
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+package nl.cwi.monetdb.jdbc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the connections to a URL naming several servers, such as
+ * jdbc:monetdb://host1:50000,host2:50000/database, over those servers.
+ *
+ * The load_balance connection property selects the server to try
+ * first: round_robin (the default) takes the servers in turn,
+ * least_connections the server with the fewest open connections from
+ * this JVM, and latency picks a server at random, weighted by the
+ * inverse of the connect latency measured by the health checks.  When
+ * connecting to that server fails, the other ones are tried in turn.
+ *
+ * A server to which connecting fails is ejected: it is not selected
+ * any more, and only tried when all other servers fail as well, for 30
+ * seconds, doubling with every next failure up to 5 minutes.  Unless
+ * the health_check_interval connection property is 0, a background
+ * thread also connects to each server every health_check_interval
+ * seconds (default 10), to measure its connect latency, and to eject
+ * or readmit it early.  The health check only opens a TCP connection,
+ * it does not log in.
+ *
+ * The same MonetLoadBalancer is shared by all connections to the same
+ * list of servers with the same settings, such that the connection
+ * counts and health scores cover all of them.  The connections register
+ * themselves with acquired() and released().  The health checks run
+ * while there are open connections; when the last one is closed, they
+ * are cancelled and the balancer, with its health scores, is dropped.
+ */
+final class MonetLoadBalancer {
+	static final String ROUND_ROBIN = "round_robin";
+	static final String LEAST_CONNECTIONS = "least_connections";
+	static final String LATENCY = "latency";
+
+	/** Time to wait for a TCP connection to a server, in milliseconds */
+	static final int CONNECT_TIMEOUT = 5000;
+	/** Time a server is ejected after its first failure, in milliseconds */
+	private static final long EJECT_TIME = 30 * 1000;
+	/** Maximum time a server is ejected, in milliseconds */
+	private static final long MAX_EJECT_TIME = 5 * 60 * 1000;
+
+	/** The balancers in use, by their servers and settings.  The
+	 *  balancers and their reference counts are guarded by this map. */
+	private static final Map<String, MonetLoadBalancer> balancers =
+		new HashMap<String, MonetLoadBalancer>();
+	/** The thread running the health checks of all balancers, created on first use */
+	private static ScheduledThreadPoolExecutor healthChecker = null;
+
+	private final String key;
+	private final Endpoint[] endpoints;
+	private final String policy;
+	private final int healthCheckInterval;
+	/** The number of open connections using this balancer */
+	private int references = 0;
+	/** The scheduled health checks, null if not running */
+	private ScheduledFuture<?> healthCheck = null;
+	private final AtomicInteger next = new AtomicInteger();
+	private final Random random = new Random();
+
+	/**
+	 * Returns the balancer for the given servers, creating it on first
+	 * use.  A connection using it must call acquired() once it is
+	 * open.
+	 *
+	 * @param hosts the comma separated servers, as host or host:port
+	 * @param port the port of servers given without one
+	 * @param policy round_robin, least_connections or latency
+	 * @param healthCheckInterval seconds between health checks, 0 for none
+	 * @return the balancer
+	 * @throws IllegalArgumentException if the servers or policy are invalid
+	 */
+	static MonetLoadBalancer get(String hosts, int port, String policy, int healthCheckInterval)
+		throws IllegalArgumentException
+	{
+		if (!ROUND_ROBIN.equals(policy) && !LEAST_CONNECTIONS.equals(policy) && !LATENCY.equals(policy))
+			throw new IllegalArgumentException("Invalid load_balance policy: " + policy);
+		final String key = hosts + "|" + port + "|" + policy + "|" + healthCheckInterval;
+		synchronized (balancers) {
+			MonetLoadBalancer balancer = balancers.get(key);
+			if (balancer == null) {
+				balancer = new MonetLoadBalancer(key, hosts, port, policy, healthCheckInterval);
+				balancers.put(key, balancer);
+			}
+			return balancer;
+		}
+	}
+
+	/**
+	 * Records that a connection using this balancer has been opened.
+	 * The first one starts the health checks.
+	 */
+	void acquired() {
+		synchronized (balancers) {
+			if (references++ == 0) {
+				// dropped after get() returned it, take its place again
+				if (!balancers.containsKey(key))
+					balancers.put(key, this);
+				if (healthCheckInterval > 0)
+					scheduleHealthCheck();
+			}
+		}
+	}
+
+	/**
+	 * Records that a connection using this balancer has been closed.
+	 * After the last one, the health checks are cancelled and this
+	 * balancer is dropped.
+	 */
+	void released() {
+		synchronized (balancers) {
+			if (references == 0 || --references > 0)
+				return;
+			if (balancers.get(key) == this)
+				balancers.remove(key);
+			if (healthCheck != null) {
+				healthCheck.cancel(false);
+				healthCheck = null;
+			}
+		}
+	}
+
+	private MonetLoadBalancer(String key, String hosts, int port, String policy, int healthCheckInterval) {
+		this.key = key;
+		List<Endpoint> list = new ArrayList<Endpoint>();
+		for (String host : hosts.split(",")) {
+			host = host.trim();
+			int p = port;
+			int colon = host.lastIndexOf(':');
+			// leave IPv6 addresses, such as [::1], alone
+			if (colon > 0 && colon > host.lastIndexOf(']')) {
+				try {
+					p = Integer.parseInt(host.substring(colon + 1));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid port number in: " + host);
+				}
+				host = host.substring(0, colon);
+			}
+			if (host.isEmpty())
+				throw new IllegalArgumentException("Missing or empty host name in: " + hosts);
+			if (p <= 0 || p > 65535)
+				throw new IllegalArgumentException("Invalid port number in: " + hosts);
+			list.add(new Endpoint(host, p));
+		}
+		this.endpoints = list.toArray(new Endpoint[list.size()]);
+		this.policy = policy;
+		this.healthCheckInterval = healthCheckInterval;
+	}
+
+	/**
+	 * Returns the servers in the order in which a new connection
+	 * should try them: the one selected by the policy first, then the
+	 * other healthy ones, then the ejected ones.
+	 *
+	 * @return the servers to try
+	 */
+	List<Endpoint> candidates() {
+		final long now = System.currentTimeMillis();
+		final int n = endpoints.length;
+		final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+		List<Endpoint> healthy = new ArrayList<Endpoint>(n);
+		List<Endpoint> ejected = new ArrayList<Endpoint>(n);
+		for (int i = 0; i < n; i++) {
+			Endpoint ep = endpoints[(start + i) % n];
+			if (ep.isEjected(now)) {
+				ejected.add(ep);
+			} else {
+				healthy.add(ep);
+			}
+		}
+		if (healthy.size() > 1) {
+			int first = 0;
+			if (LEAST_CONNECTIONS.equals(policy)) {
+				for (int i = 1; i < healthy.size(); i++) {
+					if (healthy.get(i).active.get() < healthy.get(first).active.get())
+						first = i;
+				}
+			} else if (LATENCY.equals(policy)) {
+				first = pickByLatency(healthy);
+			}
+			if (first > 0)
+				healthy.add(0, healthy.remove(first));
+		}
+		healthy.addAll(ejected);
+		return healthy;
+	}
+
+	/* picks one of the given servers at random, weighted by 1 / latency */
+	private int pickByLatency(List<Endpoint> healthy) {
+		double[] weights = new double[healthy.size()];
+		double total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			// count unmeasured servers as fast, such that they get measured
+			long latency = Math.max(healthy.get(i).latency, 100);
+			weights[i] = 1.0 / latency;
+			total += weights[i];
+		}
+		double r = random.nextDouble() * total;
+		for (int i = 0; i < weights.length; i++) {
+			r -= weights[i];
+			if (r < 0)
+				return i;
+		}
+		return weights.length - 1;
+	}
+
+	/* starts the health checks, called with the lock on balancers held */
+	private void scheduleHealthCheck() {
+		if (healthChecker == null) {
+			healthChecker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MonetDB health check");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			// don't keep the checks of dropped balancers in the queue
+			healthChecker.setRemoveOnCancelPolicy(true);
+		}
+		healthCheck = healthChecker.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for (Endpoint ep : endpoints)
+					ep.check();
+			}
+		}, 0, healthCheckInterval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Returns the servers in the form of the authority of a URL.
+	 *
+	 * @return the servers, as host1:port1,host2:port2,...
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Endpoint ep : endpoints) {
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(ep.host).append(':').append(ep.port);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * One of the servers of a MonetLoadBalancer, with its health score:
+	 * its number of open connections, its connect latency and its
+	 * recent failures.
+	 */
+	static final class Endpoint {
+		final String host;
+		final int port;
+		/** Number of open connections to this server */
+		final AtomicInteger active = new AtomicInteger();
+		/** Moving average of the latency of the health checks in
+		 *  microseconds, 0 if unknown */
+		private volatile long latency = 0;
+		/** Number of failures since the last success */
+		private int failures = 0;
+		/** Time until which this server is ejected */
+		private long ejectedUntil = 0;
+
+		Endpoint(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+
+		synchronized boolean isEjected(long now) {
+			return now < ejectedUntil;
+		}
+
+		/**
+		 * Records a successful login, which readmits this server.
+		 */
+		synchronized void connected() {
+			failures = 0;
+			ejectedUntil = 0;
+		}
+
+		/**
+		 * Records that a connection to this server has been opened.
+		 */
+		void acquired() {
+			active.incrementAndGet();
+		}
+
+		/**
+		 * Records that a connection to this server has been closed.
+		 */
+		void released() {
+			active.decrementAndGet();
+		}
+
+		/**
+		 * Records a failure to connect, and ejects this server.
+		 */
+		synchronized void failed() {
+			long time = EJECT_TIME << Math.min(failures, 10);
+			failures++;
+			ejectedUntil = System.currentTimeMillis() + Math.min(time, MAX_EJECT_TIME);
+		}
+
+		private synchronized void succeeded(long nanos) {
+			long micros = Math.max(nanos / 1000, 1);
+			// weigh in the new measurement for a quarter
+			latency = latency == 0 ? micros : (3 * latency + micros) / 4;
+			connected();
+		}
+
+		/* connects to this server, without logging in, to check its health */
+		void check() {
+			Socket s = new Socket();
+			long start = System.nanoTime();
+			try {
+				s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+				succeeded(System.nanoTime() - start);
+			} catch (IOException e) {
+				failed();
+			} finally {
+				try {
+					s.close();
+				} catch (IOException e) { /* ignore it */ }
+			}
+		}
+	}
+}
@@ -0,0 +1,568 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+package nl.cwi.monetdb.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+/**
+ * Runs a query in slices, each on its own connection, to spread a scan
+ * of a large result over several connections and threads.
+ *
+ * The slices are defined by ranges of a partitioning column of the
+ * result: the query is run as
+ * <pre>SELECT * FROM (query) AS scan WHERE "column" &gt;= ? AND "column" &lt; ?</pre>
+ * for each range between the bounds given with setBounds(), plus a
+ * slice for the rows in which the column is NULL.  Without bounds, the
+ * minimum and maximum of the column, which must then be of an integer
+ * type, are looked up and divided into getParallelism() ranges of
+ * equal width.
+ *
+ * The rows can be consumed in two ways:
+ * <ul>
+ * <li>executeQuery() returns a forward only ResultSet of all rows.
+ *     The slices are executed concurrently, and their rows are
+ *     returned one slice after the other.  If setOrdered(true) was
+ *     called, the slices are returned in the order of their ranges and
+ *     each slice is sorted on the column, such that all rows are
+ *     sorted on it.  Otherwise the slices are returned in the order
+ *     they complete.</li>
+ * <li>forEach() passes every row to a RowHandler, concurrently from
+ *     getParallelism() threads, each reading its own slice.  Also the
+ *     reading and decoding of the rows is spread over the threads this
+ *     way, but the rows arrive in no particular order.</li>
+ * </ul>
+ * Each slice takes a connection from the DataSource, which is closed
+ * as soon as its rows have been consumed.  At most getParallelism()
+ * slices hold a connection at the same time: a slice is only executed
+ * once the rows of an earlier one have been consumed, when that many
+ * are waiting to be read.  A pooling DataSource, such as
+ * MonetPoolingDataSource, should allow for at least getParallelism()
+ * connections.  Note that the slices do not see a
+ * single snapshot of the database, as they run in separate
+ * transactions.
+ */
+public final class MonetParallelScan {
+	/**
+	 * Receives the rows of MonetParallelScan.forEach().  The method is
+	 * called concurrently from several threads, each with its own
+	 * ResultSet.
+	 */
+	public interface RowHandler {
+		/**
+		 * Processes the current row of the given ResultSet.  The
+		 * ResultSet must not be moved or closed.
+		 *
+		 * @param rs the ResultSet positioned on the row
+		 * @throws SQLException to stop the scan with this error
+		 */
+		void handle(ResultSet rs) throws SQLException;
+	}
+
+	private final DataSource dataSource;
+	private final String query;
+	private final String column;
+	private int parallelism = 4;
+	private Object[] bounds = null;
+	private boolean ordered = false;
+
+	/**
+	 * Creates a scan of the result of the given query, partitioned on
+	 * the given column of that result.
+	 *
+	 * @param dataSource the DataSource to get the connections from
+	 * @param query the SELECT query to scan the result of
+	 * @param column the name of the partitioning column of the result
+	 * @throws IllegalArgumentException if one of the arguments is null
+	 */
+	public MonetParallelScan(DataSource dataSource, String query, String column) {
+		if (dataSource == null || query == null || column == null)
+			throw new IllegalArgumentException("null not allowed");
+		this.dataSource = dataSource;
+		// a trailing ; cannot be part of a subquery
+		query = query.trim();
+		while (query.endsWith(";"))
+			query = query.substring(0, query.length() - 1).trim();
+		this.query = query;
+		this.column = column;
+	}
+
+	/**
+	 * Gets the number of threads which execute the slices.
+	 *
+	 * @return the number of threads, default is 4
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the number of threads which execute the slices.  Without
+	 * bounds, this is also the number of ranges the values of the
+	 * column are divided in.
+	 *
+	 * @param parallelism the number of threads, at least 1
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be >= 1");
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Sets the bounds of the ranges of the column.  The values are
+	 * passed to PreparedStatement.setObject(), and must be given in
+	 * ascending order.  Bounds b1, ..., bn give the ranges
+	 * column &lt; b1, b1 &lt;= column &lt; b2, ..., bn &lt;= column.
+	 *
+	 * @param bounds the bounds, or null to divide the range between the
+	 *        minimum and maximum of the (integer) column
+	 */
+	public void setBounds(Object... bounds) {
+		this.bounds = bounds == null ? null : bounds.clone();
+	}
+
+	/**
+	 * Sets whether the ResultSet returned by executeQuery() returns all
+	 * rows sorted on the column.
+	 *
+	 * @param ordered whether the rows should be sorted
+	 */
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Executes the slices concurrently and returns their rows as one
+	 * forward only, read only ResultSet.  Its getStatement() returns
+	 * null.  Closing it closes the slices and their connections.
+	 *
+	 * @return the ResultSet of all rows
+	 * @throws SQLException if looking up the ranges fails
+	 */
+	public ResultSet executeQuery() throws SQLException {
+		final List<Slice> slices = slices(ordered);
+		final ExecutorService executor = newExecutor(Math.min(parallelism, slices.size()));
+		final List<Future<Slice>> futures = new ArrayList<Future<Slice>>(slices.size());
+		final CompletionService<Slice> completion = ordered ? null : new ExecutorCompletionService<Slice>(executor);
+		for (final Slice slice : slices) {
+			Callable<Slice> task = new Callable<Slice>() {
+				@Override
+				public Slice call() throws SQLException {
+					slice.execute();
+					return slice;
+				}
+			};
+			futures.add(ordered ? executor.submit(task) : completion.submit(task));
+		}
+		// the threads end when the queued slices have been executed
+		executor.shutdown();
+		return new MergedResultSet(slices, futures, completion).proxy;
+	}
+
+	/**
+	 * Executes the slices and passes all their rows to the given
+	 * handler, which is called concurrently from getParallelism()
+	 * threads.  When the handler or a slice fails, the remaining
+	 * slices are stopped and the error is thrown.
+	 *
+	 * @param handler the RowHandler to process the rows
+	 * @return the number of rows processed
+	 * @throws SQLException if a slice or the handler fails
+	 */
+	public long forEach(final RowHandler handler) throws SQLException {
+		if (handler == null)
+			throw new IllegalArgumentException("handler is null");
+		final List<Slice> slices = slices(false);
+		final ExecutorService executor = newExecutor(Math.min(parallelism, slices.size()));
+		final AtomicLong rows = new AtomicLong();
+		final List<Future<?>> futures = new ArrayList<Future<?>>(slices.size());
+		for (final Slice slice : slices) {
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws SQLException {
+					try {
+						if (slice.execute()) {
+							ResultSet rs = slice.rs;
+							long n = 0;
+							while (!slice.isClosed() && rs.next()) {
+								handler.handle(rs);
+								n++;
+							}
+							rows.addAndGet(n);
+						}
+					} finally {
+						slice.close();
+					}
+					return null;
+				}
+			}));
+		}
+		executor.shutdown();
+
+		SQLException error = null;
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				if (error == null) {
+					// stop the others at their next row
+					for (Slice slice : slices)
+						slice.close();
+					error = toSQLException(e);
+				}
+			} catch (InterruptedException e) {
+				if (error == null)
+					error = new SQLException("Interrupted while waiting for the slices", "HY008", e);
+				for (Slice slice : slices)
+					slice.close();
+			}
+		}
+		if (error != null)
+			throw error;
+		return rows.get();
+	}
+
+	/* returns the slices to execute, in the order of their ranges */
+	private List<Slice> slices(boolean sorted) throws SQLException {
+		final String col = MonetConnection.quoteIdentifier(column);
+		final String base = "SELECT * FROM (" + query + ") AS scan WHERE ";
+		final String order = sorted ? " ORDER BY " + col : "";
+		Object[] b = bounds != null ? bounds : deriveBounds(col);
+		// shared by the slices, limits the connections held at once
+		Semaphore permits = new Semaphore(parallelism);
+
+		List<Slice> slices = new ArrayList<Slice>(b.length + 2);
+		// NULLs sort first
+		slices.add(new Slice(permits, base + col + " IS NULL"));
+		if (b.length == 0) {
+			slices.add(new Slice(permits, base + col + " IS NOT NULL" + order));
+		} else {
+			slices.add(new Slice(permits, base + col + " < ?" + order, b[0]));
+			for (int i = 1; i < b.length; i++)
+				slices.add(new Slice(permits, base + col + " >= ? AND " + col + " < ?" + order, b[i - 1], b[i]));
+			slices.add(new Slice(permits, base + col + " >= ?" + order, b[b.length - 1]));
+		}
+		return slices;
+	}
+
+	/* divides the range between the minimum and maximum of the column */
+	private Object[] deriveBounds(String col) throws SQLException {
+		Connection con = dataSource.getConnection();
+		try {
+			Statement st = con.createStatement();
+			ResultSet rs = st.executeQuery("SELECT MIN(" + col + "), MAX(" + col + ") FROM (" + query + ") AS scan");
+			switch (rs.getMetaData().getColumnType(1)) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+					break;
+				default:
+					throw new SQLException("Cannot divide the values of column " + column +
+						" in ranges, use setBounds() for columns which are not of an integer type", "M1M05");
+			}
+			if (!rs.next())
+				return new Object[0];
+			BigInteger min = BigInteger.valueOf(rs.getLong(1));
+			if (rs.wasNull())
+				return new Object[0];	// no rows, or NULLs only
+			BigInteger max = BigInteger.valueOf(rs.getLong(2));
+			BigInteger width = max.subtract(min).add(BigInteger.ONE);
+			BigInteger n = BigInteger.valueOf(parallelism);
+			List<Long> b = new ArrayList<Long>(parallelism - 1);
+			for (int i = 1; i < parallelism; i++) {
+				long bound = min.add(width.multiply(BigInteger.valueOf(i)).divide(n)).longValue();
+				// with fewer values than ranges, skip the empty ones
+				if (bound > min.longValue() && (b.isEmpty() || bound > b.get(b.size() - 1)))
+					b.add(Long.valueOf(bound));
+			}
+			return b.toArray();
+		} finally {
+			con.close();
+		}
+	}
+
+	private static ExecutorService newExecutor(int threads) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+			0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MonetDB parallel scan");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return executor;
+	}
+
+	private static SQLException toSQLException(ExecutionException e) {
+		Throwable t = e.getCause();
+		if (t instanceof SQLException)
+			return (SQLException) t;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new SQLException(t.getMessage(), "M0M10", t);
+	}
+
+	/**
+	 * One slice of the scan: a query for one range, with the
+	 * connection it is executed on.  While it holds a connection, the
+	 * slice holds a permit of the Semaphore shared by the slices of
+	 * the scan, which it releases when it is closed.
+	 */
+	private final class Slice {
+		private final Semaphore permits;
+		private final String sql;
+		private final Object[] params;
+		private Connection con;
+		private boolean permit = false;
+		private PreparedStatement ps;
+		ResultSet rs;
+		private volatile boolean closed = false;
+
+		Slice(Semaphore permits, String sql, Object... params) {
+			this.permits = permits;
+			this.sql = sql;
+			this.params = params;
+		}
+
+		/**
+		 * Executes the query of this slice, unless the slice has been
+		 * closed already.  Waits until fewer than getParallelism()
+		 * slices hold a connection.
+		 *
+		 * @return whether the slice was executed
+		 * @throws SQLException if executing fails
+		 */
+		boolean execute() throws SQLException {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				throw new SQLException("Interrupted while waiting for a connection", "HY008", e);
+			}
+			try {
+				Connection c;
+				synchronized (this) {
+					if (closed) {
+						permits.release();
+						return false;
+					}
+					permit = true;
+					c = con = dataSource.getConnection();
+				}
+				ps = c.prepareStatement(sql);
+				for (int i = 0; i < params.length; i++)
+					ps.setObject(i + 1, params[i]);
+				rs = ps.executeQuery();
+			} catch (SQLException e) {
+				close();
+				throw e;
+			}
+			// closed while executing, the result is of no use
+			if (closed) {
+				close();
+				return false;
+			}
+			return true;
+		}
+
+		boolean isClosed() {
+			return closed;
+		}
+
+		/**
+		 * Closes this slice and its connection, and releases its
+		 * permit.  A slice which is still executing closes its
+		 * connection when it is done.
+		 */
+		void close() {
+			Connection c;
+			boolean release;
+			synchronized (this) {
+				closed = true;
+				c = con;
+				con = null;
+				release = permit;
+				permit = false;
+			}
+			if (c != null) {
+				try {
+					// closes the statement and its result as well
+					c.close();
+				} catch (SQLException e) { /* ignore it */ }
+			}
+			// only now the connection is back in a pool
+			if (release)
+				permits.release();
+		}
+	}
+
+	/**
+	 * The ResultSet returned by executeQuery().  It forwards all calls
+	 * to the ResultSet of the slice being read.
+	 */
+	private final class MergedResultSet implements InvocationHandler {
+		final ResultSet proxy;
+		private final List<Slice> slices;
+		private final List<Future<Slice>> futures;
+		private final CompletionService<Slice> completion;
+		/** The number of slices taken */
+		private int taken = 0;
+		/** The slice being read, null before the first one */
+		private Slice current = null;
+		private int row = 0;
+		private boolean afterLast = false;
+		private boolean closed = false;
+
+		MergedResultSet(List<Slice> slices, List<Future<Slice>> futures, CompletionService<Slice> completion) {
+			this.slices = slices;
+			this.futures = futures;
+			this.completion = completion;
+			proxy = (ResultSet) Proxy.newProxyInstance(
+				MonetParallelScan.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class },
+				this);
+		}
+
+		/* moves to the next executed slice, returns false after the last one */
+		private boolean nextSlice() throws SQLException {
+			if (current != null) {
+				current.close();
+				current = null;
+			}
+			while (taken < futures.size()) {
+				Future<Slice> f;
+				try {
+					f = completion == null ? futures.get(taken) : completion.take();
+					taken++;
+					Slice s = f.get();
+					if (s.rs != null && !s.isClosed()) {
+						current = s;
+						return true;
+					}
+				} catch (ExecutionException e) {
+					close();
+					throw toSQLException(e);
+				} catch (InterruptedException e) {
+					close();
+					throw new SQLException("Interrupted while waiting for the slices", "HY008", e);
+				}
+			}
+			return false;
+		}
+
+		private boolean next() throws SQLException {
+			if (afterLast)
+				return false;
+			while (current == null || !current.rs.next()) {
+				if (!nextSlice()) {
+					afterLast = true;
+					return false;
+				}
+			}
+			row++;
+			return true;
+		}
+
+		private void close() {
+			if (closed)
+				return;
+			closed = true;
+			// slices still executing close themselves when done
+			for (Slice s : slices)
+				s.close();
+			current = null;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable
+		{
+			String name = method.getName();
+			if (method.getDeclaringClass() == Object.class) {
+				if (name.equals("equals"))
+					return Boolean.valueOf(proxy == args[0]);
+				if (name.equals("hashCode"))
+					return Integer.valueOf(System.identityHashCode(proxy));
+				return "MonetParallelScan of " + query;
+			}
+			if (name.equals("close")) {
+				close();
+				return null;
+			}
+			if (name.equals("isClosed"))
+				return Boolean.valueOf(closed);
+			if (closed)
+				throw new SQLException("ResultSet is closed", "M1M20");
+			if (name.equals("next"))
+				return Boolean.valueOf(next());
+			if (name.equals("getRow"))
+				return Integer.valueOf(current == null || afterLast ? 0 : row);
+			if (name.equals("isBeforeFirst"))
+				return Boolean.valueOf(row == 0 && !afterLast);
+			if (name.equals("isAfterLast"))
+				return Boolean.valueOf(afterLast && row > 0);
+			if (name.equals("isFirst"))
+				return Boolean.valueOf(row == 1 && !afterLast);
+			if (name.equals("getStatement"))
+				return null;
+			if (name.equals("getType"))
+				return Integer.valueOf(ResultSet.TYPE_FORWARD_ONLY);
+			if (name.equals("getConcurrency"))
+				return Integer.valueOf(ResultSet.CONCUR_READ_ONLY);
+			if (name.equals("unwrap") || name.equals("isWrapperFor")) {
+				Class<?> iface = (Class<?>) args[0];
+				boolean is = iface != null && iface.isInstance(proxy);
+				if (name.equals("isWrapperFor"))
+					return Boolean.valueOf(is);
+				if (!is)
+					throw new SQLException("Cannot unwrap to " + iface, "0A000");
+				return proxy;
+			}
+			// before the first row, metadata comes from the first slice
+			if (current == null && !afterLast && !nextSlice())
+				afterLast = true;
+			if (current == null)
+				throw new SQLException("No current row", "24000");
+			try {
+				return method.invoke(current.rs, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
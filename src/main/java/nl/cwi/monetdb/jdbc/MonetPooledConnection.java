@@ -0,0 +1,432 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+package nl.cwi.monetdb.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEvent;
+import javax.sql.StatementEventListener;
+
+/**
+ * A PooledConnection suitable for the MonetDB database.
+ *
+ * A MonetPooledConnection is a physical connection to the server,
+ * which is handed out to its users as a logical Connection by
+ * getConnection().  Closing the logical Connection closes the
+ * Statements created on it, but keeps the physical connection open for
+ * the next user.  The connection pool is notified of this, and of
+ * errors which make the physical connection unusable, by
+ * ConnectionEvents.
+ *
+ * When the physical connection has a cache of prepared statements (see
+ * the prepared_statement_cache_size connection property), the server
+ * handles of closed poolable PreparedStatements are kept in it, also
+ * while the connection waits in the pool.  Preparing the same query
+ * again, by the same or the next user, then takes no round trip to the
+ * server.  Closing a PreparedStatement notifies the registered
+ * StatementEventListeners.
+ *
+ * The physical connection can still be reached with unwrap(), which is
+ * needed for extensions such as MonetConnection.copyIn().  When it is
+ * closed that way while a logical Connection is in use, the logical
+ * Connection is closed as well, and the listeners are told with a
+ * connectionErrorOccurred event (SQLState 08003).
+ *
+ * Instances are created by MonetConnectionPoolDataSource.
+ */
+public class MonetPooledConnection implements PooledConnection {
+	/** The physical connection */
+	private final MonetConnection con;
+	private final List<ConnectionEventListener> connectionListeners = new CopyOnWriteArrayList<ConnectionEventListener>();
+	private final List<StatementEventListener> statementListeners = new CopyOnWriteArrayList<StatementEventListener>();
+	/** Guards handle, invalidating it closes Statements at the server */
+	private final Lock lock = new ReentrantLock();
+	/** The logical Connection handed out last, if any */
+	private ConnectionHandle handle;
+	/** Whether the listeners have been told the physical connection is broken */
+	private final AtomicBoolean errorReported = new AtomicBoolean();
+	/** Whether close() has been called */
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructs a MonetPooledConnection for the given physical
+	 * connection.
+	 *
+	 * @param con the physical connection
+	 */
+	MonetPooledConnection(MonetConnection con) {
+		this.con = con;
+		con.setCloseHook(new Runnable() {
+			@Override
+			public void run() {
+				physicalConnectionClosed();
+			}
+		});
+	}
+
+	/**
+	 * Creates a logical Connection on the physical connection.  A
+	 * logical Connection which is still open is closed first, without
+	 * notifying the listeners.
+	 *
+	 * @return a logical Connection
+	 * @throws SQLException if this PooledConnection or its physical
+	 *         connection is closed
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		lock.lock();
+		try {
+			if (closed || con.isClosed())
+				throw new SQLException("PooledConnection is closed", "M1M20");
+			if (handle != null)
+				handle.invalidate();
+			handle = new ConnectionHandle();
+			return handle.proxy;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the physical connection.  The logical Connection handed
+	 * out, if any, can no longer be used.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			if (handle != null) {
+				handle.invalidate();
+				handle = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+		con.close();
+	}
+
+	/**
+	 * Called when the physical connection has been closed.  If this was
+	 * not done by close(), the logical Connection in use, if any, is
+	 * closed and the listeners are told the physical connection is
+	 * gone, as its user can no longer return it by closing the logical
+	 * Connection.
+	 */
+	private void physicalConnectionClosed() {
+		ConnectionHandle h;
+		lock.lock();
+		try {
+			if (closed)
+				return;
+			h = handle;
+		} finally {
+			lock.unlock();
+		}
+		if (h == null || !h.closed.compareAndSet(false, true))
+			return;
+		// also when an earlier error has been reported already: that
+		// one left the logical Connection open
+		errorReported.set(true);
+		ConnectionEvent event = new ConnectionEvent(this,
+			new SQLException("Physical connection has been closed", "08003"));
+		for (ConnectionEventListener l : connectionListeners)
+			l.connectionErrorOccurred(event);
+	}
+
+	/**
+	 * Returns whether the logical Connection handed out last, if any,
+	 * has been closed.
+	 *
+	 * @return whether no logical Connection is in use
+	 */
+	boolean isLogicalConnectionClosed() {
+		lock.lock();
+		try {
+			return handle == null || handle.closed.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the physical connection, for the pool of
+	 * MonetPoolingDataSource.
+	 *
+	 * @return the physical connection
+	 */
+	MonetConnection getMonetConnection() {
+		return con;
+	}
+
+	@Override
+	public void addConnectionEventListener(ConnectionEventListener listener) {
+		if (listener != null)
+			connectionListeners.add(listener);
+	}
+
+	@Override
+	public void removeConnectionEventListener(ConnectionEventListener listener) {
+		connectionListeners.remove(listener);
+	}
+
+	@Override
+	public void addStatementEventListener(StatementEventListener listener) {
+		if (listener != null)
+			statementListeners.add(listener);
+	}
+
+	@Override
+	public void removeStatementEventListener(StatementEventListener listener) {
+		statementListeners.remove(listener);
+	}
+
+	/**
+	 * Tells the listeners the logical Connection has been closed.
+	 */
+	private void fireConnectionClosed() {
+		ConnectionEvent event = new ConnectionEvent(this);
+		for (ConnectionEventListener l : connectionListeners)
+			l.connectionClosed(event);
+	}
+
+	/**
+	 * Tells the listeners the physical connection cannot be used any
+	 * more, if the given error shows so.  This is the case for errors
+	 * with an SQLState of class 08 (connection exception), and for
+	 * errors after which the connection has been closed, such as a
+	 * query timeout.  The listeners are told only once.
+	 *
+	 * @param t the error which occurred using the connection
+	 */
+	private void checkError(Throwable t) {
+		if (!(t instanceof SQLException))
+			return;
+		SQLException e = (SQLException) t;
+		String state = e.getSQLState();
+		if (!(con.isClosed() || (state != null && state.startsWith("08"))))
+			return;
+		if (!errorReported.compareAndSet(false, true))
+			return;
+		ConnectionEvent event = new ConnectionEvent(this, e);
+		for (ConnectionEventListener l : connectionListeners)
+			l.connectionErrorOccurred(event);
+	}
+
+	/**
+	 * The logical Connection handed out by getConnection().  It forwards
+	 * all calls to the physical connection, and wraps the Statements it
+	 * creates and its DatabaseMetaData, such that their getConnection()
+	 * returns the logical Connection and their errors are noticed.
+	 */
+	private final class ConnectionHandle implements InvocationHandler {
+		final Connection proxy;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		ConnectionHandle() {
+			proxy = (Connection) Proxy.newProxyInstance(
+				MonetPooledConnection.class.getClassLoader(),
+				new Class<?>[] { Connection.class },
+				this);
+		}
+
+		/**
+		 * Closes this logical Connection without notifying the
+		 * listeners, when the PooledConnection hands out a new one, or
+		 * is closed itself.
+		 */
+		void invalidate() {
+			if (closed.compareAndSet(false, true))
+				con.closeStatements();
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable
+		{
+			String name = method.getName();
+			if (method.getDeclaringClass() == Object.class) {
+				if (name.equals("equals"))
+					return Boolean.valueOf(proxy == args[0]);
+				if (name.equals("hashCode"))
+					return Integer.valueOf(System.identityHashCode(proxy));
+				return "Logical " + con.toString();
+			}
+			if (name.equals("close")) {
+				if (closed.compareAndSet(false, true)) {
+					con.closeStatements();
+					fireConnectionClosed();
+				}
+				return null;
+			}
+			if (name.equals("isClosed"))
+				return Boolean.valueOf(closed.get());
+			if (closed.get()) {
+				if (name.equals("isValid"))
+					return Boolean.FALSE;
+				if (name.equals("abort"))
+					return null;
+				throw new SQLException("Connection is closed", "M1M20");
+			}
+			Object ret;
+			try {
+				ret = method.invoke(con, args);
+			} catch (InvocationTargetException e) {
+				checkError(e.getCause());
+				throw e.getCause();
+			}
+			if (name.equals("abort")) {
+				// the physical connection is gone, and so is this one
+				checkError(new SQLException("Connection aborted", "08006"));
+				if (closed.compareAndSet(false, true))
+					fireConnectionClosed();
+			} else if (ret instanceof Statement) {
+				ret = new StatementHandle(this, (Statement) ret, method.getReturnType()).proxy;
+			} else if (ret instanceof DatabaseMetaData) {
+				ret = new ChildHandle(this, null, ret, DatabaseMetaData.class).proxy;
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * A Statement created on a logical Connection.  It forwards all
+	 * calls to the Statement of the physical connection, and wraps the
+	 * ResultSets it returns, such that their getStatement() returns
+	 * this Statement.
+	 */
+	private final class StatementHandle implements InvocationHandler {
+		final Statement proxy;
+		private final ConnectionHandle connection;
+		private final Statement stmt;
+
+		StatementHandle(ConnectionHandle connection, Statement stmt, Class<?> type) {
+			this.connection = connection;
+			this.stmt = stmt;
+			proxy = (Statement) Proxy.newProxyInstance(
+				MonetPooledConnection.class.getClassLoader(),
+				new Class<?>[] { type },
+				this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable
+		{
+			String name = method.getName();
+			if (method.getDeclaringClass() == Object.class) {
+				if (name.equals("equals"))
+					return Boolean.valueOf(proxy == args[0]);
+				if (name.equals("hashCode"))
+					return Integer.valueOf(System.identityHashCode(proxy));
+				return stmt.toString();
+			}
+			if (name.equals("getConnection"))
+				return connection.proxy;
+			if (name.equals("close")) {
+				boolean wasClosed = stmt.isClosed();
+				stmt.close();
+				if (!wasClosed && stmt instanceof PreparedStatement) {
+					StatementEvent event = new StatementEvent(MonetPooledConnection.this, (PreparedStatement) proxy);
+					for (StatementEventListener l : statementListeners)
+						l.statementClosed(event);
+				}
+				return null;
+			}
+			Object ret;
+			try {
+				ret = method.invoke(stmt, args);
+			} catch (InvocationTargetException e) {
+				Throwable t = e.getCause();
+				checkError(t);
+				// a PreparedStatement closed by the error is of no use
+				if (t instanceof SQLException && stmt instanceof PreparedStatement && stmt.isClosed()) {
+					StatementEvent event = new StatementEvent(MonetPooledConnection.this, (PreparedStatement) proxy, (SQLException) t);
+					for (StatementEventListener l : statementListeners)
+						l.statementErrorOccurred(event);
+				}
+				throw t;
+			}
+			if (ret instanceof ResultSet)
+				ret = new ChildHandle(connection, (Statement) proxy, ret, ResultSet.class).proxy;
+			return ret;
+		}
+	}
+
+	/**
+	 * A ResultSet or DatabaseMetaData obtained through a logical
+	 * Connection.  It forwards all calls to the object of the physical
+	 * connection, but returns the logical Connection and Statement
+	 * instead of the physical ones, such that these cannot be closed
+	 * behind the back of the pool.  The ResultSets it returns are
+	 * wrapped likewise.
+	 */
+	private final class ChildHandle implements InvocationHandler {
+		final Object proxy;
+		private final ConnectionHandle connection;
+		/** The logical Statement, null for DatabaseMetaData results */
+		private final Statement statement;
+		private final Object target;
+
+		ChildHandle(ConnectionHandle connection, Statement statement, Object target, Class<?> type) {
+			this.connection = connection;
+			this.statement = statement;
+			this.target = target;
+			proxy = Proxy.newProxyInstance(
+				MonetPooledConnection.class.getClassLoader(),
+				new Class<?>[] { type },
+				this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable
+		{
+			String name = method.getName();
+			if (method.getDeclaringClass() == Object.class) {
+				if (name.equals("equals"))
+					return Boolean.valueOf(proxy == args[0]);
+				if (name.equals("hashCode"))
+					return Integer.valueOf(System.identityHashCode(proxy));
+				return target.toString();
+			}
+			if (name.equals("getConnection") && method.getReturnType() == Connection.class)
+				return connection.proxy;
+			if (name.equals("getStatement") && method.getReturnType() == Statement.class)
+				return statement;
+			Object ret;
+			try {
+				ret = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				checkError(e.getCause());
+				throw e.getCause();
+			}
+			if (ret instanceof ResultSet)
+				ret = new ChildHandle(connection, statement, ret, ResultSet.class).proxy;
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,512 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+package nl.cwi.monetdb.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+
+/**
+ * A DataSource suitable for the MonetDB database, which keeps a pool of
+ * Connections.
+ *
+ * Setting up a Connection to MonetDB takes a challenge/response login,
+ * possibly a redirect by merovingian, and the initialisation of the
+ * session.  This DataSource keeps the Connections which are closed by
+ * its users, and hands them out again on the next call to
+ * getConnection(), such that only the first users pay that price.
+ *
+ * The Connection returned is the logical Connection of a
+ * MonetPooledConnection, so the prepared statements of the pool are
+ * cached as MonetConnectionPoolDataSource describes.  Closing it closes
+ * the Statements created on it, rolls back the
+ * transaction in progress, restores auto-commit mode and returns the
+ * MonetConnection to the pool.  Handing out an idle Connection takes no
+ * lock.  When all Connections are in use, callers wait for one in the
+ * order they arrived, for at most the login timeout.
+ *
+ * The pool keeps between minPoolSize and maxPoolSize Connections.
+ * Connections which are idle for longer than maxIdleTime are closed, as
+ * are Connections older than maxLifetime.  A Connection which has been
+ * idle for a while is validated before it is handed out.
+ *
+ * Only getConnection() without arguments uses the pool, a Connection
+ * for other credentials is set up as MonetDataSource does.
+ */
+public class MonetPoolingDataSource extends MonetConnectionPoolDataSource {
+	/** The idle time in milliseconds after which a Connection is validated before use */
+	private static final long VALIDATION_IDLE_TIME = 1000;
+	/** The interval in milliseconds at which idle Connections are checked */
+	private static final long HOUSEKEEPING_INTERVAL = 30000;
+
+	private int minPoolSize = 0;
+	private int maxPoolSize = 10;
+	/** in seconds, 0 means idle Connections are kept */
+	private int maxIdleTime = 600;
+	/** in seconds, 0 means Connections are kept regardless of their age */
+	private int maxLifetime = 1800;
+	/** in seconds */
+	private int validationTimeout = 5;
+
+	/** The idle Connections, the most recently used first */
+	private final ConcurrentLinkedDeque<PoolEntry> idle = new ConcurrentLinkedDeque<PoolEntry>();
+	/** The number of Connections in the pool, idle or in use */
+	private final AtomicInteger total = new AtomicInteger();
+	/** The permits to use a Connection, null until the pool is started */
+	private volatile Permits permits;
+	/** The thread which evicts idle Connections and keeps the minimum */
+	private ScheduledThreadPoolExecutor housekeeper;
+	/** Whether close() has been called */
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor of a MonetPoolingDataSource which uses default
+	 * settings for a connection.  The pool is started by the first
+	 * call to getConnection().
+	 */
+	public MonetPoolingDataSource() {
+		super();
+	}
+
+	/**
+	 * Retrieves a Connection from the pool, or sets up a new one if no
+	 * idle Connection is available and the pool has not reached its
+	 * maximum size.  Otherwise waits until a Connection is returned to
+	 * the pool, for at most the login timeout.
+	 *
+	 * @return a logical Connection of a pooled MonetConnection
+	 * @throws SQLException if connecting to the database fails, or no
+	 *         Connection became available in time
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (closed)
+			throw new SQLException("DataSource is closed", "M1M20");
+		Permits p = permits;
+		if (p == null)
+			p = startPool();
+
+		int timeout = getLoginTimeout();
+		try {
+			if (timeout > 0) {
+				if (!p.tryAcquire(timeout, TimeUnit.SECONDS))
+					throw new SQLTransientConnectionException("Timeout waiting for a connection from the pool", "08M33");
+			} else {
+				p.acquire();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLTransientConnectionException("Interrupted while waiting for a connection from the pool", "08M33");
+		}
+
+		boolean success = false;
+		try {
+			PoolEntry entry;
+			while ((entry = idle.pollFirst()) != null) {
+				if (isUsable(entry))
+					break;
+				discard(entry);
+			}
+			if (entry == null)
+				entry = createEntry();
+			Connection con = entry.open();
+			success = true;
+			return con;
+		} finally {
+			if (!success)
+				p.release();
+		}
+	}
+
+	/**
+	 * Closes the idle Connections in the pool, and the Connections in
+	 * use as soon as they are closed by their users.  After this,
+	 * getConnection() fails.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			if (housekeeper != null) {
+				housekeeper.shutdownNow();
+				housekeeper = null;
+			}
+		}
+		PoolEntry entry;
+		while ((entry = idle.pollFirst()) != null)
+			discard(entry);
+	}
+
+	/**
+	 * Starts the pool: creates the permits for maxPoolSize Connections
+	 * and the thread which keeps the pool at minPoolSize Connections.
+	 *
+	 * @return the permits of the pool
+	 */
+	private synchronized Permits startPool() {
+		if (permits == null) {
+			permits = new Permits(maxPoolSize);
+			housekeeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MonetDB connection pool");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			housekeeper.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					houseKeeping();
+				}
+			}, 0, HOUSEKEEPING_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+		return permits;
+	}
+
+	/**
+	 * Closes the idle Connections which have been idle for too long or
+	 * have reached their maximum lifetime, and sets up new Connections
+	 * when the pool has less than minPoolSize Connections.
+	 */
+	private void houseKeeping() {
+		long now = System.currentTimeMillis();
+		for (PoolEntry entry : idle) {
+			boolean evict = isExpired(entry, now) ||
+				(maxIdleTime > 0 && now - entry.lastUsed >= maxIdleTime * 1000L && total.get() > minPoolSize);
+			// remove() fails if the entry has been handed out meanwhile
+			if (evict && idle.remove(entry))
+				discard(entry);
+		}
+
+		// the permit keeps the pool within its maximum size
+		Permits p = permits;
+		while (!closed && total.get() < minPoolSize && p.tryAcquire()) {
+			try {
+				PoolEntry entry = createEntry();
+				idle.offerLast(entry);
+				if (closed && idle.remove(entry))
+					discard(entry);
+			} catch (SQLException e) {
+				// try again next time
+				break;
+			} finally {
+				p.release();
+			}
+		}
+	}
+
+	/**
+	 * Sets up a new Connection for the pool.
+	 *
+	 * @return the pool entry of the new Connection
+	 * @throws SQLException if connecting to the database fails
+	 */
+	private PoolEntry createEntry() throws SQLException {
+		MonetPooledConnection pc = (MonetPooledConnection) getPooledConnection();
+		total.incrementAndGet();
+		return new PoolEntry(pc);
+	}
+
+	/**
+	 * Closes the Connection of the given pool entry, which is no longer
+	 * part of the pool.
+	 *
+	 * @param entry the pool entry to close
+	 */
+	private void discard(PoolEntry entry) {
+		total.decrementAndGet();
+		entry.pc.close();
+	}
+
+	/**
+	 * Returns whether the Connection of the given idle pool entry can be
+	 * handed out.  A Connection which has been idle for a while is
+	 * validated with the server first.
+	 *
+	 * @param entry the pool entry to check
+	 * @return whether the Connection can be used
+	 */
+	private boolean isUsable(PoolEntry entry) {
+		long now = System.currentTimeMillis();
+		if (entry.broken || entry.con.isClosed() || isExpired(entry, now))
+			return false;
+		if (now - entry.lastUsed < VALIDATION_IDLE_TIME)
+			return true;
+		try {
+			return entry.con.isValid(validationTimeout);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns whether the given pool entry has reached its maximum
+	 * lifetime.
+	 *
+	 * @param entry the pool entry to check
+	 * @param now the current time in milliseconds
+	 * @return whether the Connection is too old to be used
+	 */
+	private boolean isExpired(PoolEntry entry, long now) {
+		return maxLifetime > 0 && now - entry.created >= maxLifetime * 1000L;
+	}
+
+	/**
+	 * Returns the Connection of the given pool entry to the pool after
+	 * its user closed it.  The session is reset for the next user, if
+	 * that fails the Connection is closed.
+	 *
+	 * @param entry the pool entry which is no longer in use
+	 */
+	private void release(PoolEntry entry) {
+		try {
+			if (closed || !resetSession(entry)) {
+				discard(entry);
+				return;
+			}
+			entry.lastUsed = System.currentTimeMillis();
+			idle.offerFirst(entry);
+			// close() may have drained the pool meanwhile
+			if (closed && idle.remove(entry))
+				discard(entry);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Resets the session of the given pool entry for its next user, see
+	 * MonetConnection.resetSession().  Closing the logical Connection
+	 * closed its Statements.
+	 *
+	 * @param entry the pool entry to reset
+	 * @return whether the Connection can be used again
+	 */
+	private boolean resetSession(PoolEntry entry) {
+		MonetConnection con = entry.con;
+		if (entry.broken || con.isClosed() || isExpired(entry, System.currentTimeMillis()))
+			return false;
+		try {
+			con.resetSession();
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the number of Connections in the pool, idle or in use.
+	 *
+	 * @return the number of Connections in the pool
+	 */
+	public int getTotalConnections() {
+		return total.get();
+	}
+
+	/**
+	 * Gets the number of idle Connections in the pool.
+	 *
+	 * @return the number of idle Connections
+	 */
+	public int getIdleConnections() {
+		return idle.size();
+	}
+
+	/**
+	 * Gets the minimum number of Connections the pool keeps.
+	 *
+	 * @return the minimum pool size, default is 0
+	 */
+	public int getMinPoolSize() {
+		return minPoolSize;
+	}
+
+	/**
+	 * Sets the minimum number of Connections the pool keeps.  They are
+	 * set up in the background once the pool is in use.
+	 *
+	 * @param minPoolSize the minimum pool size
+	 */
+	public void setMinPoolSize(int minPoolSize) {
+		if (minPoolSize < 0)
+			throw new IllegalArgumentException("minPoolSize must be >= 0");
+		this.minPoolSize = minPoolSize;
+	}
+
+	/**
+	 * Gets the maximum number of Connections in the pool.
+	 *
+	 * @return the maximum pool size, default is 10
+	 */
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	/**
+	 * Sets the maximum number of Connections in the pool.  When all
+	 * of them are in use, getConnection() waits for one to be returned.
+	 *
+	 * @param maxPoolSize the maximum pool size
+	 */
+	public synchronized void setMaxPoolSize(int maxPoolSize) {
+		if (maxPoolSize <= 0)
+			throw new IllegalArgumentException("maxPoolSize must be > 0");
+		if (permits != null) {
+			if (maxPoolSize > this.maxPoolSize)
+				permits.release(maxPoolSize - this.maxPoolSize);
+			else
+				permits.reduce(this.maxPoolSize - maxPoolSize);
+		}
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	/**
+	 * Gets the number of seconds after which an idle Connection is
+	 * closed, as long as the pool keeps more than minPoolSize
+	 * Connections.
+	 *
+	 * @return the maximum idle time in seconds, default is 600
+	 */
+	public int getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	/**
+	 * Sets the number of seconds after which an idle Connection is
+	 * closed.
+	 *
+	 * @param seconds the maximum idle time, 0 means no limit
+	 */
+	public void setMaxIdleTime(int seconds) {
+		if (seconds < 0)
+			throw new IllegalArgumentException("maxIdleTime must be >= 0");
+		maxIdleTime = seconds;
+	}
+
+	/**
+	 * Gets the number of seconds after which a Connection is closed
+	 * instead of being handed out again.
+	 *
+	 * @return the maximum lifetime in seconds, default is 1800
+	 */
+	public int getMaxLifetime() {
+		return maxLifetime;
+	}
+
+	/**
+	 * Sets the number of seconds after which a Connection is closed
+	 * instead of being handed out again.
+	 *
+	 * @param seconds the maximum lifetime, 0 means no limit
+	 */
+	public void setMaxLifetime(int seconds) {
+		if (seconds < 0)
+			throw new IllegalArgumentException("maxLifetime must be >= 0");
+		maxLifetime = seconds;
+	}
+
+	/**
+	 * Gets the number of seconds the validation of an idle Connection
+	 * may take.
+	 *
+	 * @return the validation timeout in seconds, default is 5
+	 */
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+
+	/**
+	 * Sets the number of seconds the validation of an idle Connection
+	 * may take before it is considered broken.
+	 *
+	 * @param seconds the validation timeout, 0 means no limit
+	 */
+	public void setValidationTimeout(int seconds) {
+		if (seconds < 0)
+			throw new IllegalArgumentException("validationTimeout must be >= 0");
+		validationTimeout = seconds;
+	}
+
+	/**
+	 * The permits to use a Connection of the pool.  Waiting callers get
+	 * them in order of arrival, while a free permit is taken without
+	 * locking.  The number of permits changes with maxPoolSize.
+	 */
+	private static final class Permits extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		Permits(int permits) {
+			super(permits, true);
+		}
+
+		void reduce(int reduction) {
+			reducePermits(reduction);
+		}
+	}
+
+	/**
+	 * A MonetPooledConnection of the pool.  It listens to its logical
+	 * Connection, to return it to the pool when it is closed.
+	 */
+	private final class PoolEntry implements ConnectionEventListener {
+		final MonetPooledConnection pc;
+		final MonetConnection con;
+		/** The time the Connection was set up */
+		final long created;
+		/** The time the Connection was returned to the pool */
+		volatile long lastUsed;
+		/** Whether an error made the Connection unusable */
+		volatile boolean broken = false;
+		/** Whether the Connection has been handed out, and not yet returned */
+		private final AtomicBoolean inUse = new AtomicBoolean();
+
+		PoolEntry(MonetPooledConnection pc) {
+			this.pc = pc;
+			con = pc.getMonetConnection();
+			created = lastUsed = System.currentTimeMillis();
+			pc.addConnectionEventListener(this);
+		}
+
+		/**
+		 * Returns a new logical Connection for the next user.
+		 *
+		 * @return the Connection to hand out
+		 * @throws SQLException if the Connection has been closed
+		 */
+		Connection open() throws SQLException {
+			Connection c = pc.getConnection();
+			inUse.set(true);
+			return c;
+		}
+
+		@Override
+		public void connectionClosed(ConnectionEvent event) {
+			if (inUse.compareAndSet(true, false))
+				release(this);
+		}
+
+		@Override
+		public void connectionErrorOccurred(ConnectionEvent event) {
+			// it is discarded once its user closes it, unless that is no
+			// longer possible, when the physical connection was closed
+			broken = true;
+			if (con.isClosed() && pc.isLogicalConnectionClosed() && inUse.compareAndSet(true, false))
+				release(this);
+		}
+	}
+}
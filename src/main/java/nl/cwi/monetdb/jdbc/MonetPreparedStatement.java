@@ -11,12 +11,14 @@ package nl.cwi.monetdb.jdbc;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.net.URL;
-import java.nio.CharBuffer;
 import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.NClob;
@@ -37,8 +39,14 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import nl.cwi.monetdb.mcl.net.MapiSocket;
 
 /**
  * A {@link PreparedStatement} suitable for the MonetDB database.
@@ -78,8 +86,69 @@ public class MonetPreparedStatement
 	private final int id;
 	private final int size;
 	private final int rscolcnt;
-
+	/** The key under which the connection keeps the handle on close, or null if it is not kept */
+	private final String cacheKey;
+	/** The generation of prepared handles of the connection the handle
+	 *  was prepared in, see MonetConnection.cachePreparedHandle() */
+	private final int generation;
+	/** Whether the handle may be kept for reuse when this is closed;
+	 *  not after the server rejected its execution, as that may be
+	 *  due to the handle having become invalid */
+	private boolean reusable = true;
+	/** The "table (columns)" target of a plain INSERT ... VALUES (?, ...) query, or null */
+	private final String copyTarget;
+	/** The rows added to the batch as COPY INTO records */
+	private StringBuilder copyRecords;
+	/** The number of rows in copyRecords */
+	private int copyRecordCount;
+	/** Whether a row of the batch could not be converted to a COPY INTO record */
+	private boolean copyRejected;
+	/** The COPY INTO queries of the batch sent before executeBatch, as
+	 *  their number of rows and the update count of each of those rows */
+	private final List<int[]> copyChunks = new ArrayList<int[]>();
+	/** The errors of the COPY INTO queries in copyChunks, if any */
+	private SQLException copyError;
+
+	/** The number of characters of COPY INTO records at which they are
+	 *  sent, unless the batch_flush_size connection property is set */
+	private static final int COPY_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	/** Matches an INSERT of a single row of parameters into a table, see getCopyTarget() */
+	private static final Pattern INSERT_VALUES_PATTERN = Pattern.compile(
+		"\\s*INSERT\\s+INTO\\s+((?:\"[^\"]*\"|[a-z_][a-z0-9_]*)(?:\\s*\\.\\s*(?:\"[^\"]*\"|[a-z_][a-z0-9_]*))?)" +
+		"\\s*(\\([^()?';]*\\))?\\s*VALUES\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)\\s*;?\\s*",
+		Pattern.CASE_INSENSITIVE);
+
+	/** The parameter values: the SQL literal, or the plain String for PARAM_STRING */
 	private final String[] values;
+	/** The kind of value set for each parameter, one of the PARAM_ constants */
+	private final byte[] paramKinds;
+	/** The integral values of parameters of kind PARAM_LONG */
+	private final long[] longValues;
+	/** The cast prefixes of parameters of kind PARAM_STRING */
+	private final String[] castPrefixes;
+	/** The data of parameters of kind PARAM_BYTES, PARAM_BINARY_STREAM and PARAM_CHARACTER_STREAM */
+	private final Object[] dataValues;
+	/** The writer of the exec query, which encodes the values at execute time */
+	private final ExecQueryWriter execQuery = new ExecQueryWriter();
+
+	/* the kinds of parameter values */
+	/** no value has been set */
+	private static final byte PARAM_UNSET = 0;
+	/** values[i] holds the SQL literal */
+	private static final byte PARAM_LITERAL = 1;
+	/** longValues[i] holds the integral value */
+	private static final byte PARAM_LONG = 2;
+	/** values[i] holds a String to be quoted and escaped, prefixed by castPrefixes[i] */
+	private static final byte PARAM_STRING = 3;
+	/** dataValues[i] holds a byte[] to be written as hex blob literal */
+	private static final byte PARAM_BYTES = 4;
+	/** dataValues[i] holds an InputStream to be written as hex blob
+	 *  literal, longValues[i] holds the maximum number of bytes or -1 */
+	private static final byte PARAM_BINARY_STREAM = 5;
+	/** dataValues[i] holds a Reader to be written as quoted and escaped
+	 *  string, longValues[i] holds the maximum number of chars or -1 */
+	private static final byte PARAM_CHARACTER_STREAM = 6;
 
 	private final MonetConnection connection;
 
@@ -105,6 +174,9 @@ public class MonetPreparedStatement
 	 * @param resultSetType type of {@link ResultSet} to produce
 	 * @param resultSetConcurrency concurrency of ResultSet to produce
 	 * @param prepareQuery the query string to prepare
+	 * @param cacheKey the key to offer the server-side handle to the
+	 *        prepared statement cache of the connection under on close,
+	 *        or null to release it
 	 * @throws SQLException if an error occurs during login
 	 * @throws IllegalArgumentException is one of the arguments is null or empty
 	 */
@@ -113,7 +185,8 @@ public class MonetPreparedStatement
 			int resultSetType,
 			int resultSetConcurrency,
 			int resultSetHoldability,
-			String prepareQuery)
+			String prepareQuery,
+			String cacheKey)
 		throws SQLException, IllegalArgumentException
 	{
 		super(
@@ -122,14 +195,24 @@ public class MonetPreparedStatement
 			resultSetConcurrency,
 			resultSetHoldability
 		);
+		// taken before preparing, a SET or DDL in the mean time makes
+		// the handle stale
+		generation = connection.getPreparedHandleGeneration();
 
-		if (!super.execute("PREPARE " + prepareQuery))
-			throw new SQLException("Unexpected server response", "M0M10");
+		try {
+			if (!super.execute("PREPARE " + prepareQuery))
+				throw new SQLException("Unexpected server response", "M0M10");
+		} catch (SQLException e) {
+			// we are never handed out, so nobody else can close us
+			super.close();
+			throw e;
+		}
 
 		// cheat a bit to get the ID and the number of columns
 		id = ((MonetConnection.ResultSetResponse)header).id;
 		size = ((MonetConnection.ResultSetResponse)header).tuplecount;
 		rscolcnt = ((MonetConnection.ResultSetResponse)header).columncount;
+		registration.preparedId = id;
 
 		// initialise blank finals
 		monetdbType = new String[size];
@@ -140,8 +223,14 @@ public class MonetPreparedStatement
 		table = new String[size];
 		column = new String[size];
 		values = new String[size];
+		paramKinds = new byte[size];
+		longValues = new long[size];
+		castPrefixes = new String[size];
+		dataValues = new Object[size];
 
 		this.connection = connection;
+		this.cacheKey = cacheKey;
+		this.copyTarget = getCopyTarget(prepareQuery);
 
 		// fill the arrays
 		ResultSet rs = super.getResultSet();
@@ -182,6 +271,65 @@ public class MonetPreparedStatement
 		poolable = true;
 	}
 
+	/**
+	 * MonetPreparedStatement constructor which reuses the server-side
+	 * handle of an earlier prepared statement of the same query, as
+	 * kept by the prepared statement cache of the connection.  No
+	 * PREPARE is sent to the server.
+	 *
+	 * @param connection the connection that created this Statement
+	 * @param resultSetType type of {@link ResultSet} to produce
+	 * @param resultSetConcurrency concurrency of ResultSet to produce
+	 * @param handle the server-side handle with its metadata
+	 * @param cacheKey the key to offer the handle to the prepared
+	 *        statement cache of the connection under on close
+	 * @throws SQLException if an error occurs
+	 * @throws IllegalArgumentException is one of the arguments is null or empty
+	 */
+	MonetPreparedStatement(
+			MonetConnection connection,
+			int resultSetType,
+			int resultSetConcurrency,
+			int resultSetHoldability,
+			Handle handle,
+			String cacheKey)
+		throws SQLException, IllegalArgumentException
+	{
+		super(
+			connection,
+			resultSetType,
+			resultSetConcurrency,
+			resultSetHoldability
+		);
+
+		id = handle.id;
+		size = handle.size;
+		rscolcnt = handle.rscolcnt;
+		generation = handle.generation;
+		registration.preparedId = id;
+
+		// the metadata is never modified, so it can be shared
+		monetdbType = handle.monetdbType;
+		javaType = handle.javaType;
+		digits = handle.digits;
+		scale = handle.scale;
+		schema = handle.schema;
+		table = handle.table;
+		column = handle.column;
+		values = new String[size];
+		paramKinds = new byte[size];
+		longValues = new long[size];
+		castPrefixes = new String[size];
+		dataValues = new Object[size];
+
+		this.connection = connection;
+		this.cacheKey = cacheKey;
+		this.copyTarget = handle.copyTarget;
+
+		// PreparedStatements are by default poolable
+		poolable = true;
+	}
+
 	/**
 	 * Constructs an empty MonetPreparedStatement.  This constructor is
 	 * in particular useful for extensions of this class.
@@ -229,19 +377,180 @@ public class MonetPreparedStatement
 	 * Adds a set of parameters to this PreparedStatement object's batch
 	 * of commands.
 	 *
+	 * If this PreparedStatement inserts a single row of parameters into
+	 * a table, the rows are collected as records for a COPY INTO, which
+	 * the server loads a lot faster than separate exec statements.  A
+	 * row which cannot be represented as record (e.g. a string equal to
+	 * the NULL marker) ends this, it and all rows after it are executed
+	 * as separate statements.
+	 *
+	 * The records are sent as a COPY INTO query of their own as soon as
+	 * there are batch_flush_size characters of them (see the connection
+	 * property), or 8M characters if that is not set, such that large
+	 * batches need not be kept in memory.  The update counts and errors
+	 * are reported by executeBatch.
+	 *
 	 * @throws SQLException if a database access error occurs
 	 */
 	@Override
 	public void addBatch() throws SQLException {
+		if (copyTarget != null && !copyRejected) {
+			checkParametersSet();
+			if (copyRecords == null)
+				copyRecords = new StringBuilder(MapiSocket.BLOCK);
+			int mark = copyRecords.length();
+			if (appendCopyRecord(copyRecords)) {
+				copyRecordCount++;
+				int flushSize = connection.getBatchFlushSize();
+				if (copyRecords.length() >= (flushSize > 0 ? flushSize : COPY_CHUNK_SIZE))
+					flushCopyRecords();
+				return;
+			}
+			copyRecords.setLength(mark);
+			copyRejected = true;
+			// the rows after the records may only be sent after them
+			flushCopyRecords();
+		}
 		super.addBatch(transform());
 	}
 
+	/**
+	 * Sends the rows collected as COPY INTO records, if any, as a COPY
+	 * INTO query, and records its outcome for executeBatch.
+	 */
+	private void flushCopyRecords() {
+		int rows = copyRecordCount;
+		if (rows == 0)
+			return;
+		batchLock.lock();
+		try {
+			int count = -1;
+			int rowCount;
+			try {
+				if (!internalExecute(new CopyQueryWriter(rows, copyRecords)))
+					count = getUpdateCount();
+				rowCount = count == rows ? 1 : SUCCESS_NO_INFO;
+			} catch (SQLException e) {
+				rowCount = EXECUTE_FAILED;
+				if (copyError == null) {
+					copyError = e;
+				} else {
+					copyError.setNextException(e);
+				}
+			}
+			copyChunks.add(new int[] { rows, rowCount });
+			copyRecords.setLength(0);
+			copyRecordCount = 0;
+		} finally {
+			batchLock.unlock();
+		}
+	}
+
+	/**
+	 * The rows executed as separate statements may not be sent before
+	 * the rows collected as COPY INTO records, which are only sent by
+	 * executeBatch.
+	 *
+	 * @return whether no rows are collected as COPY INTO records
+	 */
+	@Override
+	boolean mayFlushBatch() {
+		return copyRecordCount == 0;
+	}
+
 	/** override the addBatch from the Statement to throw an SQLException */
 	@Override
 	public void addBatch(String q) throws SQLException {
 		throw new SQLException("This method is not available in a PreparedStatement!", "M1M05");
 	}
 
+	/**
+	 * Empties this PreparedStatement object's current batch of rows.
+	 */
+	@Override
+	public void clearBatch() {
+		super.clearBatch();
+		clearCopyRecords();
+	}
+
+	/**
+	 * Submits the batch of rows to the database for execution.  The
+	 * rows collected as COPY INTO records which were not sent yet are
+	 * sent as a COPY INTO query, the rows after them (if any) as
+	 * separate statements.  When a COPY INTO fails, none of its rows
+	 * are inserted and all of them are reported as EXECUTE_FAILED.
+	 *
+	 * @return an array of update counts containing one element for each
+	 *         row in the batch
+	 * @throws SQLException if a database access error occurs.  Throws
+	 *         BatchUpdateException (a subclass of SQLException) if one of the
+	 *         rows sent to the database fails to execute properly
+	 * @see MonetStatement#executeBatch()
+	 */
+	@Override
+	public int[] executeBatch() throws SQLException {
+		if (copyRecordCount == 0 && copyChunks.isEmpty()) {
+			try {
+				return super.executeBatch();
+			} catch (BatchUpdateException e) {
+				reusable = false;
+				throw e;
+			}
+		}
+
+		batchLock.lock();
+		try {
+			flushCopyRecords();
+			int rows = 0;
+			for (int[] chunk : copyChunks)
+				rows += chunk[0];
+			SQLException copyError = this.copyError;
+			List<int[]> chunks = new ArrayList<int[]>(copyChunks);
+			clearCopyRecords();
+
+			// the rows which could not be copied
+			int[] rest;
+			BatchUpdateException restError = null;
+			try {
+				rest = super.executeBatch();
+			} catch (BatchUpdateException e) {
+				reusable = false;
+				restError = e;
+				rest = e.getUpdateCounts();
+			}
+
+			int[] counts = new int[rows + rest.length];
+			int pos = 0;
+			for (int[] chunk : chunks) {
+				for (int i = 0; i < chunk[0]; i++)
+					counts[pos++] = chunk[1];
+			}
+			System.arraycopy(rest, 0, counts, rows, rest.length);
+
+			if (copyError == null && restError == null)
+				return counts;
+			BatchUpdateException e = new BatchUpdateException("Error(s) occurred while executing the batch, see next SQLExceptions for details", "22000", counts);
+			if (copyError != null)
+				e.setNextException(copyError);
+			if (restError != null && restError.getNextException() != null)
+				e.setNextException(restError.getNextException());
+			throw e;
+		} finally {
+			batchLock.unlock();
+		}
+	}
+
+	/**
+	 * Forgets the rows collected as COPY INTO records.
+	 */
+	private void clearCopyRecords() {
+		copyRecords = null;
+		copyRecordCount = 0;
+		copyRejected = false;
+		copyChunks.clear();
+		copyError = null;
+	}
+
 	/**
 	 * Clears the current parameter values immediately.
 	 *
@@ -255,6 +564,9 @@ public class MonetPreparedStatement
 	public void clearParameters() {
 		for (int i = 0; i < values.length; i++) {
 			values[i] = null;
+			castPrefixes[i] = null;
+			dataValues[i] = null;
+			paramKinds[i] = PARAM_UNSET;
 		}
 	}
 
@@ -277,7 +589,22 @@ public class MonetPreparedStatement
 	 */
 	@Override
 	public boolean execute() throws SQLException {
-		return super.execute(transform());
+		checkParametersSet();
+		execQuery.streamError = null;
+		boolean ret;
+		try {
+			ret = internalExecute(execQuery);
+		} catch (SQLException e) {
+			reusable = false;
+			// the server rejects the aborted query
+			if (execQuery.streamError == null)
+				throw e;
+			ret = false;
+		}
+		if (execQuery.streamError != null)
+			throw new SQLException("failed to read from stream: " +
+					execQuery.streamError.getMessage(), "M1M25");
+		return ret;
 	}
 
 	/** override the execute from the Statement to throw an SQLException */
@@ -1092,14 +1419,12 @@ public class MonetPreparedStatement
 	 * @param parameterIndex the first parameter is 1, the second is 2, ...
 	 * @param x the java input stream which contains the binary parameter value
 	 * @throws SQLException if a database access error occurs
-	 * @throws SQLFeatureNotSupportedException the JDBC driver does
-	 *         not support this method
 	 */
 	@Override
 	public void setBinaryStream(int parameterIndex, InputStream x)
 		throws SQLException
 	{
-		throw newSQLFeatureNotSupportedException("setBinaryStream");
+		setBinaryData(parameterIndex, x, -1);
 	}
 
 	/**
@@ -1116,14 +1441,12 @@ public class MonetPreparedStatement
 	 * @param x the java input stream which contains the binary parameter value
 	 * @param length the number of bytes in the stream
 	 * @throws SQLException if a database access error occurs
-	 * @throws SQLFeatureNotSupportedException the JDBC driver does
-	 *         not support this method
 	 */
 	@Override
 	public void setBinaryStream(int parameterIndex, InputStream x, int length)
 		throws SQLException
 	{
-		throw newSQLFeatureNotSupportedException("setBinaryStream");
+		setBinaryData(parameterIndex, x, length);
 	}
 
 	/**
@@ -1140,14 +1463,12 @@ public class MonetPreparedStatement
 	 * @param x the java input stream which contains the binary parameter value
 	 * @param length the number of bytes in the stream
 	 * @throws SQLException if a database access error occurs
-	 * @throws SQLFeatureNotSupportedException the JDBC driver does
-	 *         not support this method
 	 */
 	@Override
 	public void setBinaryStream(int parameterIndex, InputStream x, long length)
 		throws SQLException
 	{
-		throw newSQLFeatureNotSupportedException("setBinaryStream");
+		setBinaryData(parameterIndex, x, length);
 	}
 
 	/**
@@ -1157,12 +1478,10 @@ public class MonetPreparedStatement
 	 * @param parameterIndex the first parameter is 1, the second is 2, ...
 	 * @param x a Blob object that maps an SQL BLOB value
 	 * @throws SQLException if a database access error occurs
-	 * @throws SQLFeatureNotSupportedException the JDBC driver does
-	 *         not support this method
 	 */
 	@Override
 	public void setBlob(int parameterIndex, InputStream x) throws SQLException {
-		throw newSQLFeatureNotSupportedException("setBlob");
+		setBinaryData(parameterIndex, x, -1);
 	}
 
 	/**
@@ -1172,12 +1491,14 @@ public class MonetPreparedStatement
 	 * @param parameterIndex the first parameter is 1, the second is 2, ...
 	 * @param x a Blob object that maps an SQL BLOB value
 	 * @throws SQLException if a database access error occurs
-	 * @throws SQLFeatureNotSupportedException the JDBC driver does
-	 *         not support this method
 	 */
 	@Override
 	public void setBlob(int parameterIndex, Blob x) throws SQLException {
-		throw newSQLFeatureNotSupportedException("setBlob");
+		if (x == null) {
+			setNull(parameterIndex, -1);
+			return;
+		}
+		setBinaryData(parameterIndex, x.getBinaryStream(), x.length());
 	}
 
 	/**
@@ -1195,13 +1516,14 @@ public class MonetPreparedStatement
 	 * @param is an object that contains the data to set the parameter
 	 *           value to
 	 * @param length the number of bytes in the parameter data
-	 * @throws SQLException if a database access error occurs
-	 * @throws SQLFeatureNotSupportedException the JDBC driver does
-	 *         not support this method
+	 * @throws SQLException if a database access error occurs or the
+	 *         length is negative
 	 */
 	@Override
 	public void setBlob(int parameterIndex, InputStream is, long length) throws SQLException {
-		throw newSQLFeatureNotSupportedException("setBlob");
+		if (length < 0)
+			throw new SQLException("Length of the stream must not be negative: " + length, "M1M05");
+		setBinaryData(parameterIndex, is, length);
 	}
 
 	/**
@@ -1228,7 +1550,7 @@ public class MonetPreparedStatement
 	 */
 	@Override
 	public void setByte(int parameterIndex, byte x) throws SQLException {
-		setValue(parameterIndex, Byte.toString(x));
+		setLongValue(parameterIndex, x);
 	}
 
 	static final String HEXES = "0123456789ABCDEF";
@@ -1249,14 +1571,11 @@ public class MonetPreparedStatement
 			return;
 		}
 
-		StringBuilder hex = new StringBuilder(x.length * 2);
-		byte b;
-		for (int i = 0; i < x.length; i++) {
-			b = x[i];
-			hex.append(HEXES.charAt((b & 0xF0) >> 4))
-				.append(HEXES.charAt((b & 0x0F)));
-		}
-		setValue(parameterIndex, "blob '" + hex.toString() + "'");
+		// the hex literal is only produced when the query is written
+		int paramIdx = getParamIdx(parameterIndex);
+		dataValues[paramIdx] = x.clone();
+		values[paramIdx] = null;
+		paramKinds[paramIdx] = PARAM_BYTES;
 	}
 
 	/**
@@ -1282,18 +1601,7 @@ public class MonetPreparedStatement
 		int length)
 		throws SQLException
 	{
-		if (reader == null) {
-			setNull(parameterIndex, -1);
-			return;
-		}
-
-		CharBuffer tmp = CharBuffer.allocate(length);
-		try {
-			reader.read(tmp);
-		} catch (IOException e) {
-			throw new SQLException(e.getMessage(), "M1M25");
-		}
-		setString(parameterIndex, tmp.toString());
+		setCharacterData(parameterIndex, reader, length);
 	}
 
 	/**
@@ -1317,7 +1625,7 @@ public class MonetPreparedStatement
 	public void setCharacterStream(int parameterIndex, Reader reader)
 		throws SQLException
 	{
-		setCharacterStream(parameterIndex, reader, 0);
+		setCharacterData(parameterIndex, reader, -1);
 	}
 
 	/**
@@ -1343,8 +1651,7 @@ public class MonetPreparedStatement
 		long length)
 		throws SQLException
 	{
-		// given the implementation of the int-version, downcast is ok
-		setCharacterStream(parameterIndex, reader, (int)length);
+		setCharacterData(parameterIndex, reader, length);
 	}
 
 	/**
@@ -1362,10 +1669,12 @@ public class MonetPreparedStatement
 			return;
 		}
 
-		// simply serialise the CLOB into a variable for now... far from
-		// efficient, but might work for a few cases...
-		// be on your marks: we have to cast the length down!
-		setString(parameterIndex, x.getSubString(1L, (int)(x.length())));
+		// our own Clobs give access to their data without a copy
+		if (x instanceof MonetClob) {
+			setString(parameterIndex, ((MonetClob)x).getCharSequence().toString());
+			return;
+		}
+		setCharacterData(parameterIndex, x.getCharacterStream(), x.length());
 	}
 
 	/**
@@ -1385,18 +1694,7 @@ public class MonetPreparedStatement
 			setNull(parameterIndex, -1);
 			return;
 		}
-		// Some buffer. Size of 8192 is default for BufferedReader, so...
-		char[] arr = new char[8192];
-		StringBuilder buf = new StringBuilder(8192 * 8);
-		int numChars;
-		try {
-			while ((numChars = reader.read(arr, 0, arr.length)) > 0) {
-				buf.append(arr, 0, numChars);
-			}
-			setString(parameterIndex, buf.toString());
-		} catch (IOException e) {
-			throw new SQLException(e);
-		}
+		setCharacterData(parameterIndex, reader, -1);
 	}
 
 	/**
@@ -1422,18 +1720,7 @@ public class MonetPreparedStatement
 			setNull(parameterIndex, -1);
 			return;
 		}
-		// simply serialise the CLOB into a variable for now... far from
-		// efficient, but might work for a few cases...
-		CharBuffer buf = CharBuffer.allocate((int)length); // have to down cast :(
-		try {
-			reader.read(buf);
-		} catch (IOException e) {
-			throw new SQLException("failed to read from stream: " +
-					e.getMessage(), "M1M25");
-		}
-		// We have to rewind the buffer, because otherwise toString() returns "".
-		buf.rewind();
-		setString(parameterIndex, buf.toString());
+		setCharacterData(parameterIndex, reader, length);
 	}
 
 	/**
@@ -1523,7 +1810,7 @@ public class MonetPreparedStatement
 	 */
 	@Override
 	public void setInt(int parameterIndex, int x) throws SQLException {
-		setValue(parameterIndex, Integer.toString(x));
+		setLongValue(parameterIndex, x);
 	}
 
 	/**
@@ -1536,7 +1823,7 @@ public class MonetPreparedStatement
 	 */
 	@Override
 	public void setLong(int parameterIndex, long x) throws SQLException {
-		setValue(parameterIndex, Long.toString(x));
+		setLongValue(parameterIndex, x);
 	}
 
 	/**
@@ -2012,7 +2299,7 @@ public class MonetPreparedStatement
 		} else if (x instanceof java.net.URL) {
 			setURL(parameterIndex, (java.net.URL)x);
 		} else if (x instanceof java.util.UUID) {
-			setString(parameterIndex, x.toString());
+			setUUID(parameterIndex, (java.util.UUID)x);
 		} else if (x instanceof RowId) {
 			setRowId(parameterIndex, (RowId)x);
 		} else if (x instanceof NClob) {
@@ -2214,7 +2501,7 @@ public class MonetPreparedStatement
 	 */
 	@Override
 	public void setShort(int parameterIndex, short x) throws SQLException {
-		setValue(parameterIndex, Short.toString(x));
+		setLongValue(parameterIndex, x);
 	}
 
 	/**
@@ -2299,7 +2586,7 @@ public class MonetPreparedStatement
 						try {
 							// also check if x represents a valid uuid string to prevent
 							// failing exec #(..., ...) calls which destroy the prepared statement, see bug 6351
-							java.util.UUID uuid_obj = java.util.UUID.fromString(x);
+							MonetResultSet.parseUUID(x);
 						} catch (IllegalArgumentException iae) {
 							throw new SQLDataException("Conversion of string: " + x + " to parameter data type " + paramMonetdbType + " failed. " + iae.getMessage(), "22M31");
 						}
@@ -2307,8 +2594,11 @@ public class MonetPreparedStatement
 						break;
 				}
 				/* in specific cases prefix the string with: inet or json or url or uuid */
-				setValue(parameterIndex,
-					castprefix + "'" + x.replaceAll("\\\\", "\\\\\\\\").replaceAll("'", "\\\\'") + "'");
+				// the value is quoted and escaped when it is written
+				values[paramIdx] = x;
+				castPrefixes[paramIdx] = castprefix;
+				dataValues[paramIdx] = null;
+				paramKinds[paramIdx] = PARAM_STRING;
 				break;
 			}
 			case Types.TINYINT:
@@ -2608,31 +2898,183 @@ public class MonetPreparedStatement
 	 * Calling the method close on a PreparedStatement object that is
 	 * already closed has no effect.
 	 *
-	 * <b>Note:</b> A PreparedStatement object is automatically closed
-	 * when it is garbage collected. When a Statement object is closed,
+	 * <b>Note:</b> When a PreparedStatement object is garbage collected
+	 * without being closed, its Connection releases its server-side
+	 * handle.  When a Statement object is closed,
 	 * its current ResultSet object, if one exists, is also closed.
 	 */
 	@Override
 	public void close() {
 		try {
-			if (!closed && id != -1)
-				connection.sendControlCommand("release " + id);
+			if (!closed && id != -1) {
+				// a poolable statement may hand its handle to the
+				// connection for reuse, it is released on eviction
+				if (cacheKey == null || !poolable || !reusable ||
+						!connection.cachePreparedHandle(cacheKey, new Handle(this)))
+					connection.sendControlCommand("release " + id);
+			}
 		} catch (SQLException e) {
 			// probably server closed connection
 		}
 		super.close();
 	}
 
+	//== end methods interface PreparedStatement
+
 	/**
-	 * Call close to release the server-sided handle for this
-	 * PreparedStatement.
+	 * Sets the designated parameter to the given UUID value.  For
+	 * parameters of a character type the SQL literal is encoded straight
+	 * from the two longs of the UUID, without building the intermediate
+	 * String of UUID.toString() first.
+	 *
+	 * @param parameterIndex the first parameter is 1, the second is 2, ...
+	 * @param x the parameter value
+	 * @throws SQLException if a database access error occurs
 	 */
-	@Override
-	protected void finalize() {
-		close();
+	private void setUUID(int parameterIndex, java.util.UUID x) throws SQLException {
+		int paramIdx = getParamIdx(parameterIndex);	// this will throw a SQLException if parameter can not be found
+		final String prefix;
+		switch (javaType[paramIdx]) {
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.CLOB:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.LONGNVARCHAR:
+				prefix = "uuid".equals(monetdbType[paramIdx]) ? "uuid '" : "'";
+				break;
+			default:
+				// let setString() deal with the conversion (errors)
+				setString(parameterIndex, x.toString());
+				return;
+		}
+
+		final int plen = prefix.length();
+		char[] buf = new char[plen + 37];
+		prefix.getChars(0, plen, buf, 0);
+		long msb = x.getMostSignificantBits();
+		long lsb = x.getLeastSignificantBits();
+		// layout: 8-4-4-4-12 hex digits
+		int pos = plen + 36;
+		buf[pos] = '\'';
+		for (int i = 0; i < 12; i++, lsb >>>= 4)
+			buf[--pos] = Character.forDigit((int)(lsb & 0xF), 16);
+		buf[--pos] = '-';
+		for (int i = 0; i < 4; i++, lsb >>>= 4)
+			buf[--pos] = Character.forDigit((int)(lsb & 0xF), 16);
+		buf[--pos] = '-';
+		for (int i = 0; i < 4; i++, msb >>>= 4)
+			buf[--pos] = Character.forDigit((int)(msb & 0xF), 16);
+		buf[--pos] = '-';
+		for (int i = 0; i < 4; i++, msb >>>= 4)
+			buf[--pos] = Character.forDigit((int)(msb & 0xF), 16);
+		buf[--pos] = '-';
+		for (int i = 0; i < 8; i++, msb >>>= 4)
+			buf[--pos] = Character.forDigit((int)(msb & 0xF), 16);
+		setValue(parameterIndex, new String(buf));
+	}
+
+	/**
+	 * Reads the character data from the given Reader and sets it as the
+	 * value of the given parameter.  For the plain character types the
+	 * data is escaped and quoted while it is being read, such that the
+	 * only full copy of the value held is the final SQL literal.  Other
+	 * types (e.g. inet, json, url, uuid) require validation of the whole
+	 * value and are passed on to setString().
+	 *
+	 * @param parameterIndex the first parameter is 1, the second is 2, ...
+	 * @param reader the java.io.Reader object that contains the data
+	 * @param length the number of characters to read, or -1 to read
+	 *        until end-of-file
+	 * @throws SQLException if a database access error occurs
+	 */
+	private void setCharacterData(int parameterIndex, Reader reader, long length)
+		throws SQLException
+	{
+		if (reader == null) {
+			setNull(parameterIndex, -1);
+			return;
+		}
+
+		int paramIdx = getParamIdx(parameterIndex);	// this will throw a SQLException if parameter can not be found
+		boolean plain;
+		switch (javaType[paramIdx]) {
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.CLOB:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.LONGNVARCHAR:
+				switch (monetdbType[paramIdx]) {
+					case "inet":
+					case "json":
+					case "url":
+					case "uuid":
+						plain = false;
+						break;
+					default:
+						plain = true;
+				}
+				break;
+			default:
+				plain = false;
+		}
+
+		if (plain) {
+			// the Reader is read when the query is written
+			dataValues[paramIdx] = reader;
+			longValues[paramIdx] = length;
+			values[paramIdx] = null;
+			paramKinds[paramIdx] = PARAM_CHARACTER_STREAM;
+			return;
+		}
+
+		// the value needs checking, which requires it as a whole
+		char[] cbuf = new char[8192];
+		StringBuilder sb = new StringBuilder(length > 0 && length < Integer.MAX_VALUE / 2 ? (int)length + 8 : 8192);
+		long todo = length < 0 ? Long.MAX_VALUE : length;
+		try {
+			int numChars;
+			while (todo > 0 && (numChars = reader.read(cbuf, 0, (int)Math.min(cbuf.length, todo))) >= 0) {
+				sb.append(cbuf, 0, numChars);
+				todo -= numChars;
+			}
+		} catch (IOException e) {
+			throw new SQLException("failed to read from stream: " +
+					e.getMessage(), "M1M25");
+		}
+		setString(parameterIndex, sb.toString());
 	}
 
-	//== end methods interface PreparedStatement
+	/**
+	 * Sets the given index to the binary data of the given
+	 * InputStream.  The InputStream is only read when the query is
+	 * written to the server, where its bytes are hex encoded on the
+	 * fly.  Hence the data is never in memory as a whole, but it can
+	 * be executed only once.
+	 *
+	 * @param parameterIndex the parameter index
+	 * @param stream the InputStream holding the data
+	 * @param length the maximum number of bytes to read, or -1 to read
+	 *        the whole stream
+	 * @throws SQLException if the given index is out of bounds
+	 */
+	private void setBinaryData(int parameterIndex, InputStream stream, long length)
+		throws SQLException
+	{
+		if (stream == null) {
+			setNull(parameterIndex, -1);
+			return;
+		}
+
+		int paramIdx = getParamIdx(parameterIndex);
+		dataValues[paramIdx] = stream;
+		longValues[paramIdx] = length;
+		values[paramIdx] = null;
+		paramKinds[paramIdx] = PARAM_BINARY_STREAM;
+	}
 
 	/**
 	 * Sets the given index with the supplied value. If the given index is
@@ -2644,7 +3086,26 @@ public class MonetPreparedStatement
 	 * @throws SQLException if the given index is out of bounds
 	 */
 	private void setValue(int parameterIndex, String val) throws SQLException {
-		values[getParamIdx(parameterIndex)] = (val == null ? "NULL" : val);
+		int paramIdx = getParamIdx(parameterIndex);
+		values[paramIdx] = (val == null ? "NULL" : val);
+		dataValues[paramIdx] = null;
+		paramKinds[paramIdx] = PARAM_LITERAL;
+	}
+
+	/**
+	 * Sets the given index with the supplied integral value.  The value
+	 * is formatted when the query is written to the server.
+	 *
+	 * @param parameterIndex the parameter index
+	 * @param val the value to set
+	 * @throws SQLException if the given index is out of bounds
+	 */
+	private void setLongValue(int parameterIndex, long val) throws SQLException {
+		int paramIdx = getParamIdx(parameterIndex);
+		longValues[paramIdx] = val;
+		values[paramIdx] = null;
+		dataValues[paramIdx] = null;
+		paramKinds[paramIdx] = PARAM_LONG;
 	}
 
 	/**
@@ -2657,24 +3118,430 @@ public class MonetPreparedStatement
 	 * @throws SQLException if not all columns are set
 	 */
 	private String transform() throws SQLException {
-		StringBuilder buf = new StringBuilder(8 + 12 * size);
-		buf.append("exec ").append(id).append('(');
-		// check if all columns are set and do a replace
+		checkParametersSet();
+		StringWriter buf = new StringWriter(8 + 12 * size);
+		execQuery.streamError = null;
+		try {
+			execQuery.writeTo(buf);
+		} catch (IOException e) {
+			// cannot happen for a StringWriter
+			throw new SQLException(e.getMessage(), "M0M03");
+		}
+		if (execQuery.streamError != null)
+			throw new SQLException("failed to read from stream: " +
+					execQuery.streamError.getMessage(), "M1M25");
+		return buf.toString();
+	}
+
+	/**
+	 * Checks whether all parameters have been given a value.
+	 *
+	 * @throws SQLException if not all parameters are set
+	 */
+	private void checkParametersSet() throws SQLException {
 		int col = 0;
 		for (int i = 0; i < size; i++) {
 			if (column[i] != null)
 				continue;
 			col++;
-			if (col > 1)
-				buf.append(',');
-			if (values[i] == null)
+			if (paramKinds[i] == PARAM_UNSET)
 				throw new SQLException("Cannot execute, parameter " + col + " is missing.", "M1M05");
+		}
+	}
 
-			buf.append(values[i]);
+	/**
+	 * Returns the target of a COPY INTO for the given query, if it is
+	 * an INSERT INTO of a single row of only parameters.  Such a query
+	 * can be executed for a batch of rows as a COPY INTO the table.
+	 *
+	 * @param query the query to prepare
+	 * @return the table name followed by the column list (if any), or
+	 *         null if the query is not a plain INSERT of parameters
+	 */
+	static String getCopyTarget(String query) {
+		Matcher m = INSERT_VALUES_PATTERN.matcher(query);
+		if (!m.matches())
+			return null;
+		return m.group(2) == null ? m.group(1) : m.group(1) + " " + m.group(2);
+	}
+
+	/** The NULL marker of the COPY INTO records */
+	private static final String COPY_NULL = "NULL";
+
+	/**
+	 * Appends the current parameter values as a COPY INTO record, in
+	 * which fields are separated by '|', strings are quoted with '"'
+	 * and the record ends with a newline.
+	 *
+	 * @param sb the StringBuilder to append the record to
+	 * @return false if a value cannot be represented in the record, in
+	 *         which case part of the record may have been appended
+	 */
+	private boolean appendCopyRecord(StringBuilder sb) {
+		boolean first = true;
+		for (int i = 0; i < size; i++) {
+			if (column[i] != null)
+				continue;
+			if (first) {
+				first = false;
+			} else {
+				sb.append('|');
+			}
+			String val = values[i];
+			switch (paramKinds[i]) {
+				case PARAM_LONG:
+					sb.append(longValues[i]);
+					break;
+				case PARAM_STRING:
+					// the type is given by the column, no need for the cast
+					if (!appendCopyString(sb, val, 0, val.length(), false))
+						return false;
+					break;
+				case PARAM_BYTES:
+				case PARAM_BINARY_STREAM:
+				case PARAM_CHARACTER_STREAM:
+					// large values, which are better not kept for the batch
+					return false;
+				default:
+					// an SQL literal: NULL, a number, a boolean or a
+					// quoted string which may have a type prefix
+					if (val.equals("NULL")) {
+						sb.append(COPY_NULL);
+						break;
+					}
+					int len = val.length();
+					int quote = val.indexOf('\'');
+					if (quote < 0) {
+						for (int j = 0; j < len; j++) {
+							char c = val.charAt(j);
+							if (c == '|' || c == '"' || c == '\\' || c == '\n' || c == '\r')
+								return false;
+						}
+						sb.append(val);
+					} else {
+						if (quote == len - 1 || val.charAt(len - 1) != '\'')
+							return false;
+						if (!appendCopyString(sb, val, quote + 1, len - 1, true))
+							return false;
+					}
+			}
+		}
+		sb.append('\n');
+		return true;
+	}
+
+	/**
+	 * Appends part of the given String as quoted field of a COPY INTO
+	 * record.  Backslashes, double quotes and line breaks are escaped.
+	 *
+	 * @param sb the StringBuilder to append to
+	 * @param val the String holding the value
+	 * @param start the index of the first character of the value
+	 * @param end the index after the last character of the value
+	 * @param sqlEscaped whether the value is escaped for an SQL string
+	 *        literal, in which case the escapes are removed first
+	 * @return false if the value equals the NULL marker and thus can
+	 *         not be told apart from NULL
+	 */
+	private static boolean appendCopyString(StringBuilder sb, String val, int start, int end, boolean sqlEscaped) {
+		if (end - start == COPY_NULL.length() && val.regionMatches(true, start, COPY_NULL, 0, end - start))
+			return false;
+		sb.append('"');
+		for (int i = start; i < end; i++) {
+			char c = val.charAt(i);
+			if (sqlEscaped && c == '\\' && i + 1 < end)
+				c = val.charAt(++i);
+			switch (c) {
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				default:
+					sb.append(c);
+			}
 		}
-		buf.append(')');
+		sb.append('"');
+		return true;
+	}
 
-		return buf.toString();
+	/**
+	 * Writes a COPY INTO query followed by its records, loading the
+	 * rows of a batch into the table of this PreparedStatement.
+	 */
+	private final class CopyQueryWriter implements MonetConnection.QueryWriter {
+		private final String copyQuery;
+		private final StringBuilder records;
+
+		CopyQueryWriter(int rows, StringBuilder records) {
+			this.copyQuery = "COPY " + rows + " RECORDS INTO " + copyTarget +
+				" FROM STDIN USING DELIMITERS '|','\\n','\"' NULL AS '" + COPY_NULL + "';\n";
+			this.records = records;
+		}
+
+		@Override
+		public long length() {
+			return copyQuery.length() + records.length();
+		}
+
+		@Override
+		public void writeTo(Writer out) throws IOException {
+			out.write(copyQuery);
+			// write the records in pieces, avoiding a copy into a String
+			char[] buf = new char[8192];
+			int len = records.length();
+			for (int pos = 0; pos < len; pos += buf.length) {
+				int n = Math.min(buf.length, len - pos);
+				records.getChars(pos, pos + n, buf, 0);
+				out.write(buf, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * The server-side handle of a prepared query together with the
+	 * metadata the server returned on the PREPARE.  The connection keeps
+	 * these for closed statements, such that a next prepareStatement()
+	 * of the same query does not need a round trip to the server.
+	 */
+	static final class Handle {
+		final int id;
+		final int size;
+		final int rscolcnt;
+		final String[] monetdbType;
+		final int[] javaType;
+		final int[] digits;
+		final int[] scale;
+		final String[] schema;
+		final String[] table;
+		final String[] column;
+		final String copyTarget;
+		/** The generation of prepared handles it was prepared in */
+		final int generation;
+
+		Handle(MonetPreparedStatement ps) {
+			id = ps.id;
+			generation = ps.generation;
+			size = ps.size;
+			rscolcnt = ps.rscolcnt;
+			monetdbType = ps.monetdbType;
+			javaType = ps.javaType;
+			digits = ps.digits;
+			scale = ps.scale;
+			schema = ps.schema;
+			table = ps.table;
+			column = ps.column;
+			copyTarget = ps.copyTarget;
+		}
+	}
+
+	/**
+	 * Writes the "exec id(...)" query for the current parameter values
+	 * directly to the outgoing stream.  Numbers are formatted and
+	 * strings are escaped while writing, so executing this statement
+	 * does not require building the query as String.
+	 */
+	private final class ExecQueryWriter implements MonetConnection.QueryWriter {
+		/** Ends the query when reading a stream parameter failed: it
+		 *  closes the string literal being written, and the unbalanced
+		 *  parentheses make the server reject the complete query as a
+		 *  syntax error, before anything is executed. */
+		private static final String ABORTED_QUERY = "'))";
+		/** scratch buffer for formatting numbers */
+		private final char[] numBuf = new char[20];
+		/** The error which occurred while reading a stream parameter,
+		 *  if any.  The query is then ended with ABORTED_QUERY, such
+		 *  that the server rejects it. */
+		IOException streamError;
+
+		@Override
+		public long length() {
+			long len = 8 + 20;
+			for (int i = 0; i < size; i++) {
+				if (column[i] != null)
+					continue;
+				switch (paramKinds[i]) {
+					case PARAM_LONG:
+						len += 21;
+						break;
+					case PARAM_STRING:
+						// escaping at most doubles the length
+						len += castPrefixes[i].length() + 2L * values[i].length() + 3;
+						break;
+					case PARAM_BYTES:
+						len += 2L * ((byte[])dataValues[i]).length + 8;
+						break;
+					case PARAM_BINARY_STREAM:
+					case PARAM_CHARACTER_STREAM:
+						// a hex digit pair per byte, or at most an escape
+						// per char; a stream of unknown length is large
+						len += longValues[i] < 0 ? Integer.MAX_VALUE : 2L * longValues[i] + 8;
+						break;
+					default:
+						len += values[i].length() + 1;
+						break;
+				}
+			}
+			return len;
+		}
+
+		@Override
+		public void writeTo(Writer out) throws IOException {
+			out.write("exec ");
+			writeLong(out, id);
+			out.write('(');
+			int col = 0;
+			for (int i = 0; i < size; i++) {
+				if (column[i] != null)
+					continue;
+				if (col++ > 0)
+					out.write(',');
+				switch (paramKinds[i]) {
+					case PARAM_LONG:
+						writeLong(out, longValues[i]);
+						break;
+					case PARAM_STRING:
+						out.write(castPrefixes[i]);
+						out.write('\'');
+						writeEscaped(out, values[i]);
+						out.write('\'');
+						break;
+					case PARAM_BYTES: {
+						byte[] data = (byte[])dataValues[i];
+						out.write("blob '");
+						char[] hex = new char[2 * Math.min(data.length, 4096)];
+						for (int pos = 0; pos < data.length; pos += hex.length / 2) {
+							int n = Math.min(hex.length / 2, data.length - pos);
+							writeHex(out, hex, data, pos, n);
+						}
+						out.write('\'');
+					} break;
+					case PARAM_BINARY_STREAM:
+						out.write("blob '");
+						if (!writeBinaryStream(out, (InputStream)dataValues[i], longValues[i])) {
+							out.write(ABORTED_QUERY);
+							return;
+						}
+						out.write('\'');
+						break;
+					case PARAM_CHARACTER_STREAM:
+						out.write('\'');
+						if (!writeCharacterStream(out, (Reader)dataValues[i], longValues[i])) {
+							out.write(ABORTED_QUERY);
+							return;
+						}
+						out.write('\'');
+						break;
+					default:
+						out.write(values[i]);
+						break;
+				}
+			}
+			out.write(')');
+		}
+
+		/* writes len bytes of data as hex digits, using the given buffer */
+		private void writeHex(Writer out, char[] hex, byte[] data, int off, int len) throws IOException {
+			for (int j = 0; j < len; j++) {
+				byte b = data[off + j];
+				hex[2 * j] = HEXES.charAt((b & 0xF0) >> 4);
+				hex[2 * j + 1] = HEXES.charAt(b & 0x0F);
+			}
+			out.write(hex, 0, 2 * len);
+		}
+
+		/* writes the bytes of the stream as hex digits, returns false
+		 * if reading the stream failed */
+		private boolean writeBinaryStream(Writer out, InputStream in, long length) throws IOException {
+			byte[] buf = new byte[4096];
+			char[] hex = new char[2 * buf.length];
+			long todo = length < 0 ? Long.MAX_VALUE : length;
+			while (todo > 0) {
+				int n;
+				try {
+					n = in.read(buf, 0, (int)Math.min(buf.length, todo));
+				} catch (IOException e) {
+					streamError = e;
+					return false;
+				}
+				if (n < 0)
+					break;
+				writeHex(out, hex, buf, 0, n);
+				todo -= n;
+			}
+			return true;
+		}
+
+		/* writes the chars of the reader, escaping backslashes and
+		 * single quotes, returns false if reading the reader failed */
+		private boolean writeCharacterStream(Writer out, Reader in, long length) throws IOException {
+			char[] buf = new char[4096];
+			long todo = length < 0 ? Long.MAX_VALUE : length;
+			while (todo > 0) {
+				int n;
+				try {
+					n = in.read(buf, 0, (int)Math.min(buf.length, todo));
+				} catch (IOException e) {
+					streamError = e;
+					return false;
+				}
+				if (n < 0)
+					break;
+				int start = 0;
+				for (int j = 0; j < n; j++) {
+					char c = buf[j];
+					if (c == '\\' || c == '\'') {
+						out.write(buf, start, j - start);
+						out.write('\\');
+						start = j;
+					}
+				}
+				out.write(buf, start, n - start);
+				todo -= n;
+			}
+			return true;
+		}
+
+		/* writes the decimal representation of val, without creating a String */
+		private void writeLong(Writer out, long val) throws IOException {
+			if (val == Long.MIN_VALUE) {
+				out.write("-9223372036854775808");
+				return;
+			}
+			final boolean neg = val < 0;
+			if (neg)
+				val = -val;
+			int pos = numBuf.length;
+			do {
+				numBuf[--pos] = (char)('0' + (val % 10));
+				val /= 10;
+			} while (val != 0);
+			if (neg)
+				numBuf[--pos] = '-';
+			out.write(numBuf, pos, numBuf.length - pos);
+		}
+
+		/* writes x, escaping backslashes and single quotes */
+		private void writeEscaped(Writer out, String x) throws IOException {
+			final int len = x.length();
+			int start = 0;
+			for (int i = 0; i < len; i++) {
+				char c = x.charAt(i);
+				if (c == '\\' || c == '\'') {
+					out.write(x, start, i - start);
+					out.write('\\');
+					start = i;
+				}
+			}
+			out.write(x, start, len - start);
+		}
 	}
 
 	/**
@@ -44,6 +44,7 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.UUID;
 
 /**
  * A ResultSet suitable for the MonetDB database.
@@ -100,6 +101,8 @@ public class MonetResultSet
 	private boolean lastReadWasNull = true;
 	/** Just a dummy variable to keep store the fetchsize set. */
 	private int fetchSize;
+	/** The parser used by fetchColumns(), created on first use */
+	private TupleLineParser columnParser;
 
 	/**
 	 * Main constructor backed by the given Header.
@@ -141,6 +144,32 @@ public class MonetResultSet
 
 		JdbcSQLTypes = new int[types.length];
 		populateJdbcSQLtypesArray();
+
+		enableDictionaries(tlp);
+	}
+
+	/**
+	 * Lets repeating values of character columns share their String
+	 * objects if requested on the connection.  The parser stops by
+	 * itself for columns where this doesn't pay off.  The blocks of
+	 * the result still hold the rows as raw lines, so this saves the
+	 * Strings created per row, not the memory retained by the result.
+	 *
+	 * @param parser the TupleLineParser to enable the dictionaries on
+	 * @throws SQLException if the connection cannot be obtained
+	 */
+	private void enableDictionaries(TupleLineParser parser) throws SQLException {
+		if (!((MonetConnection)statement.getConnection()).dedupStrings())
+			return;
+		for (int i = 0; i < JdbcSQLTypes.length; i++) {
+			switch (JdbcSQLTypes[i]) {
+				case Types.CHAR:
+				case Types.VARCHAR:
+				case Types.LONGVARCHAR:
+					parser.enableDictionary(i);
+					break;
+			}
+		}
 	}
 
 	/**
@@ -1948,7 +1977,7 @@ public class MonetResultSet
 					} else
 					if ("uuid".equals(MonetDBType)) {
 						try {
-							return java.util.UUID.fromString(val);
+							return parseUUID(val);
 						} catch (IllegalArgumentException exc) {
 							// ignore exception and just return the val String object
 							return val;
@@ -2030,7 +2059,6 @@ public class MonetResultSet
 	 * @throws SQLException if a database access error occurs or this method is called on a closed result set
 	 */
 	@Override
-	@SuppressWarnings("unchecked")
 	public Object getObject(int columnIndex, Map<String,Class<?>> map)
 		throws SQLException
 	{
@@ -2058,6 +2086,25 @@ public class MonetResultSet
 			type = getClassForType(JdbcSQLTypes[columnIndex - 1]);
 		}
 
+		return getObjectOfClass(columnIndex, val, MonetDBtype, type);
+	}
+
+	/**
+	 * Helper method for the getObject methods which converts the given
+	 * (not null) column value to an instance of the requested Class.
+	 * Values which cannot be converted are returned as String.
+	 *
+	 * @param columnIndex the first column is 1, the second is 2, ...
+	 * @param val the String value of the column in the current row
+	 * @param MonetDBtype the MonetDB type of the column
+	 * @param type the Class to convert to, may be null
+	 * @return an Object of the requested Class or the String value
+	 * @throws SQLException if a database access error occurs
+	 */
+	@SuppressWarnings("unchecked")
+	private Object getObjectOfClass(int columnIndex, final String val, final String MonetDBtype, Class<?> type)
+		throws SQLException
+	{
 		if (type == null || type == String.class) {
 			return val;
 		} else if (type == BigDecimal.class) {
@@ -2086,6 +2133,12 @@ public class MonetResultSet
 			return getClob(columnIndex);
 		} else if (type == Blob.class) {
 			return getBlob(columnIndex);
+		} else if (type == UUID.class) {
+			try {
+				return parseUUID(val);
+			} catch (IllegalArgumentException e) {
+				throw new SQLDataException("Conversion of string: " + val + " to UUID failed. " + e.getMessage(), "22M31");
+			}
 		} else if (classImplementsSQLData(type)) {
 			SQLData x;
 			try {
@@ -2275,7 +2328,24 @@ public class MonetResultSet
 		if (type == null)
 			throw new SQLException("type is null", "M1M05");
 
-		throw new SQLFeatureNotSupportedException("cannot return a Java generic type based on static types from getXXX methods", "0AM34");
+		final String val;
+		final String MonetDBtype;
+		try {
+			val = tlp.values[columnIndex - 1];
+			if (val == null) {
+				lastReadWasNull = true;
+				return null;
+			}
+			lastReadWasNull = false;
+			MonetDBtype = types[columnIndex - 1];
+		} catch (IndexOutOfBoundsException e) {
+			throw newSQLInvalidColumnIndexException(columnIndex);
+		}
+
+		Object obj = getObjectOfClass(columnIndex, val, MonetDBtype, type);
+		if (!type.isInstance(obj))
+			throw new SQLFeatureNotSupportedException("cannot convert value of type " + MonetDBtype + " to " + type.getName(), "0AM34");
+		return type.cast(obj);
 	}
 
 	/**
@@ -2303,6 +2373,133 @@ public class MonetResultSet
 		return getObject(findColumn(columnLabel), type);
 	}
 
+	/**
+	 * Retrieves the next batchSize rows of this ResultSet column-wise.
+	 * This is a MonetResultSet extension for bulk processing: numeric
+	 * columns are decoded straight into primitive vectors, without the
+	 * per value objects and getter calls of row-at-a-time access.  See
+	 * {@link MonetColumnBatch} for the vector type used per column.
+	 *
+	 * The rows are taken from the row after the current one.  Afterwards
+	 * the cursor is positioned on the last row returned, so the usual
+	 * getters can still be used for that row.
+	 *
+	 * @param batchSize the maximum number of rows to retrieve
+	 * @return a new MonetColumnBatch, which holds no rows when the end
+	 *         of this ResultSet is reached
+	 * @throws SQLException if a database access error occurs, a value
+	 *         cannot be converted or this ResultSet is closed
+	 */
+	public MonetColumnBatch fetchColumns(int batchSize) throws SQLException {
+		return fetchColumns(batchSize, null);
+	}
+
+	/**
+	 * Retrieves the next batchSize rows of this ResultSet column-wise,
+	 * reusing the vectors of the given batch if it has a suitable
+	 * layout.  Use this in a loop to avoid allocating new vectors for
+	 * each batch.
+	 *
+	 * @param batchSize the maximum number of rows to retrieve
+	 * @param batch a batch returned by an earlier call on this
+	 *        ResultSet to reuse, or null
+	 * @return the given batch or a new MonetColumnBatch, which holds no
+	 *         rows when the end of this ResultSet is reached
+	 * @throws SQLException if a database access error occurs, a value
+	 *         cannot be converted or this ResultSet is closed
+	 * @see #fetchColumns(int)
+	 */
+	public MonetColumnBatch fetchColumns(int batchSize, MonetColumnBatch batch)
+		throws SQLException
+	{
+		checkNotClosed();
+		if (batchSize < 1)
+			throw new SQLException("Batch size must be at least 1", "M1M05");
+		if (header == null)
+			throw newSQLFeatureNotSupportedException("fetchColumns");
+
+		if (batch == null || !batch.fits(JdbcSQLTypes, batchSize))
+			batch = new MonetColumnBatch(JdbcSQLTypes, batchSize);
+		batch.clear();
+		if (columnParser == null) {
+			columnParser = new TupleLineParser(columns.length);
+			batch.setRawColumns(columnParser);
+			enableDictionaries(columnParser);
+		}
+
+		// curRow is 1-based, getLine() is 0-based: the next row is curRow
+		String tmpLine = null;
+		int row = curRow;
+		try {
+			for (; row - curRow < batchSize; row++) {
+				String line = header.getLine(row);
+				if (line == null)
+					break;
+				tmpLine = line;
+				columnParser.parse(line);
+				batch.addRow(columnParser);
+			}
+		} catch (MCLParseException e) {
+			throw new SQLException(e.getMessage(), "M0M10");
+		}
+
+		if (tmpLine != null) {
+			// position on the last row returned, like next() would
+			curRow = row;
+			try {
+				tlp.parse(tmpLine);
+			} catch (MCLParseException e) {
+				throw new SQLException(e.getMessage(), "M0M10");
+			}
+		} else {
+			// after last
+			curRow = tupleCount + 1;
+		}
+		return batch;
+	}
+
+	/**
+	 * Parses the canonical 36 character representation of a UUID as
+	 * sent by the server, e.g. 6c49869d-45dc-4b00-ae55-5bd363c0c72c.
+	 * The hex digits are decoded straight into the two longs of the
+	 * UUID, without the intermediate Strings and Long.parseLong()
+	 * calls of UUID.fromString().
+	 *
+	 * @param val the String to parse
+	 * @return the UUID represented by val
+	 * @throws IllegalArgumentException if val is not a valid UUID
+	 */
+	static UUID parseUUID(String val) {
+		if (val.length() != 36 || val.charAt(8) != '-' || val.charAt(13) != '-'
+		 || val.charAt(18) != '-' || val.charAt(23) != '-')
+			throw new IllegalArgumentException("Invalid UUID string: " + val);
+
+		long msb = 0, lsb = 0;
+		for (int i = 0; i < 18; i++) {
+			if (i == 8 || i == 13)
+				continue;
+			msb = (msb << 4) | hexDigit(val, i);
+		}
+		for (int i = 19; i < 36; i++) {
+			if (i == 23)
+				continue;
+			lsb = (lsb << 4) | hexDigit(val, i);
+		}
+		return new UUID(msb, lsb);
+	}
+
+	/* helper for parseUUID() */
+	private static int hexDigit(String val, int pos) {
+		char c = val.charAt(pos);
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		if (c >= 'A' && c <= 'F')
+			return c - 'A' + 10;
+		throw new IllegalArgumentException("Invalid UUID string: " + val);
+	}
+
 	/**
 	 * Helper method to support the getObject and
 	 * ResultsetMetaData.getColumnClassName JDBC methods.
@@ -2615,6 +2812,7 @@ public class MonetResultSet
 	private SimpleDateFormat dateFormat;
 	private SimpleDateFormat timeFormat;
 	private SimpleDateFormat timestampFormat;
+	private MonetDateParser dateParser;
 	/**
 	 * Helper method which parses the date/time value for columns of type
 	 * TIME, DATE and TIMESTAMP.  For the types CHAR, VARCHAR and
@@ -2686,68 +2884,73 @@ public class MonetResultSet
 			}
 		}
 
-		java.util.Date pdate = null;
 		final java.text.ParsePosition ppos = new java.text.ParsePosition(0);
-		switch(JdbcType) {
-			case Types.DATE:
-				if (dateFormat == null) {
-					// first time usage, create and keep the dateFormat object for next usage
-					dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-				}
-				dateFormat.setTimeZone(ptz);
-				pdate = dateFormat.parse(monetDate, ppos);
-				break;
-			case Types.TIME:
-				if (timeFormat == null) {
-					// first time usage, create and keep the timeFormat object for next usage
-					timeFormat = new SimpleDateFormat("HH:mm:ss");
-				}
-				timeFormat.setTimeZone(ptz);
-				pdate = timeFormat.parse(monetDate, ppos);
-				break;
-			case Types.TIMESTAMP:
-				if (timestampFormat == null) {
-					// first time usage, create and keep the timestampFormat object for next usage
-					timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-				}
-				timestampFormat.setTimeZone(ptz);
-				pdate = timestampFormat.parse(monetDate, ppos);
-				// if parsing with timestampFormat failed try to parse it in dateFormat
-				if (pdate == null && monetDate.length() <= 10 && monetDate.contains("-")) {
+		// try the fast path first, on Java 21 and up it handles the common forms
+		if (dateParser == null)
+			dateParser = new MonetDateParser();
+		if (negativeYear || !dateParser.parse(monetDate, JdbcType, ptz, cal, ppos)) {
+			java.util.Date pdate = null;
+			switch(JdbcType) {
+				case Types.DATE:
 					if (dateFormat == null) {
 						// first time usage, create and keep the dateFormat object for next usage
 						dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 					}
 					dateFormat.setTimeZone(ptz);
 					pdate = dateFormat.parse(monetDate, ppos);
+					break;
+				case Types.TIME:
+					if (timeFormat == null) {
+						// first time usage, create and keep the timeFormat object for next usage
+						timeFormat = new SimpleDateFormat("HH:mm:ss");
+					}
+					timeFormat.setTimeZone(ptz);
+					pdate = timeFormat.parse(monetDate, ppos);
+					break;
+				case Types.TIMESTAMP:
+					if (timestampFormat == null) {
+						// first time usage, create and keep the timestampFormat object for next usage
+						timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+					}
+					timestampFormat.setTimeZone(ptz);
+					pdate = timestampFormat.parse(monetDate, ppos);
+					// if parsing with timestampFormat failed try to parse it in dateFormat
+					if (pdate == null && monetDate.length() <= 10 && monetDate.contains("-")) {
+						if (dateFormat == null) {
+							// first time usage, create and keep the dateFormat object for next usage
+							dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+						}
+						dateFormat.setTimeZone(ptz);
+						pdate = dateFormat.parse(monetDate, ppos);
+					}
+					break;
+				default:
+					throw new SQLException("Internal error, unsupported data type: " + type, "01M03");
+			}
+			if (pdate == null) {
+				// parsing failed
+				String errMsg;
+				int epos = ppos.getErrorIndex();
+				if (epos == -1) {
+					errMsg = "parsing '" + monetDateStr + "' failed";
+				} else if (epos < monetDate.length()) {
+					errMsg = "parsing failed," +
+						 " found: '" + monetDate.charAt(epos) + "'" +
+						 " in: \"" + monetDateStr + "\"" +
+						 " at pos: " + (epos + (negativeYear ? 2 : 1));
+				} else {
+					errMsg = "parsing failed, expected more data after '" +	monetDateStr + "'";
 				}
-				break;
-			default:
-				throw new SQLException("Internal error, unsupported data type: " + type, "01M03");
-		}
-		if (pdate == null) {
-			// parsing failed
-			String errMsg;
-			int epos = ppos.getErrorIndex();
-			if (epos == -1) {
-				errMsg = "parsing '" + monetDateStr + "' failed";
-			} else if (epos < monetDate.length()) {
-				errMsg = "parsing failed," +
-					 " found: '" + monetDate.charAt(epos) + "'" +
-					 " in: \"" + monetDateStr + "\"" +
-					 " at pos: " + (epos + (negativeYear ? 2 : 1));
-			} else {
-				errMsg = "parsing failed, expected more data after '" +	monetDateStr + "'";
+				throw new SQLException(errMsg, "01M10");
 			}
-			throw new SQLException(errMsg, "01M10");
-		}
 
-		cal.setTime(pdate);
-		if (negativeYear) {
-			// System.out.println("Current cal: " + cal.toString());
-			// using cal.set(Calendar.YEAR, -(cal.get(Calendar.YEAR))); does not work. We must set the ERA instead
-			cal.set(Calendar.ERA, java.util.GregorianCalendar.BC);
-			// System.out.println("Corrected cal: " + cal.toString());
+			cal.setTime(pdate);
+			if (negativeYear) {
+				// System.out.println("Current cal: " + cal.toString());
+				// using cal.set(Calendar.YEAR, -(cal.get(Calendar.YEAR))); does not work. We must set the ERA instead
+				cal.set(Calendar.ERA, java.util.GregorianCalendar.BC);
+				// System.out.println("Corrected cal: " + cal.toString());
+			}
 		}
 
 		if (JdbcType == Types.TIME || JdbcType == Types.TIMESTAMP) {
@@ -9,15 +9,20 @@
 package nl.cwi.monetdb.jdbc;
 
 import nl.cwi.monetdb.mcl.net.MapiSocket;
+import java.io.Reader;
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
 import java.sql.SQLWarning;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -58,6 +63,8 @@ public class MonetStatement
 	private MonetConnection.ResponseList lastResponseList;
 	/** The last Response that this object uses */
 	MonetConnection.Response header;
+	/** The registration of this Statement at its Connection */
+	final MonetConnection.StatementRef registration;
 	/** The warnings this Statement object generated */
 	private SQLWarning warnings;
 	/** Whether this Statement object is closed or not */
@@ -78,8 +85,29 @@ public class MonetStatement
 	/** The concurrency of the ResultSet to produce */
 	private int resultSetConcurrency = ResultSet.CONCUR_READ_ONLY;
 
-	/** A List to hold all queries of a batch */
-	private List<String> batch = new ArrayList<String>();
+	/** The queries of a batch, in the form they are sent in */
+	private final BatchBuffer batch = new BatchBuffer();
+
+	/** The query timeout in seconds, 0 means no limit */
+	private int queryTimeout = 0;
+	/** Guards executing and cancelReason, which are set by other threads */
+	private final Lock cancelLock = new ReentrantLock();
+	/** Whether a query of this Statement is in progress */
+	private boolean executing = false;
+	/** Why the query in progress was stopped, one of the CANCEL_ constants */
+	private int cancelReason = CANCEL_NONE;
+	/** The nesting depth of beginExecution() calls */
+	private int executionDepth = 0;
+	/** The task which stops the query in progress when it times out */
+	private ScheduledFuture<?> timeoutTask;
+
+	/* the reasons to stop a query in progress */
+	/** the query was not stopped */
+	private static final int CANCEL_NONE = 0;
+	/** the query was stopped by cancel() */
+	private static final int CANCEL_CANCELLED = 1;
+	/** the query was stopped because its query timeout expired */
+	private static final int CANCEL_TIMEOUT = 2;
 
 
 	/**
@@ -106,6 +134,7 @@ public class MonetStatement
 		this.connection = connection;
 		this.resultSetType = resultSetType;
 		this.resultSetConcurrency = resultSetConcurrency;
+		this.registration = connection.registerStatement(this);
 
 		// check our limits, and generate warnings as appropriate
 		if (resultSetConcurrency != ResultSet.CONCUR_READ_ONLY) {
@@ -135,24 +164,59 @@ public class MonetStatement
 	 * Statement object.  The commands in this list can be executed as a
 	 * batch by calling the method executeBatch.
 	 *
+	 * When the connection property batch_flush_size is set, the
+	 * commands are sent to the server as soon as that many characters
+	 * of commands are waiting to be sent.  Their update counts and
+	 * errors are reported by executeBatch.
+	 *
 	 * @param sql typically this is a static SQL INSERT or UPDATE statement
 	 * @throws SQLException so the PreparedStatement can throw this exception
 	 */
 	@Override
 	public void addBatch(String sql) throws SQLException {
-		batch.add(sql);
+		connection.noteStatement(sql);
+		batch.add(sql, connection.queryTempl[2]);
+
+		int flushSize = connection.getBatchFlushSize();
+		if (flushSize > 0 && batch.pendingLength() >= flushSize && mayFlushBatch()) {
+			batchLock.lock();
+			beginExecution();
+			try {
+				executeBatchChunks();
+			} finally {
+				batchLock.unlock();
+				endExecution();
+			}
+		}
 	}
 
 	/**
 	 * Empties this Statement object's current list of SQL commands.
+	 * The update counts and errors of commands which were already sent
+	 * because of the batch_flush_size connection property are
+	 * forgotten as well.
 	 */
 	@Override
 	public void clearBatch() {
 		batch.clear();
 	}
 
+	/**
+	 * Returns whether the commands of the batch may be sent to the
+	 * server before executeBatch is called.
+	 *
+	 * @return true if the batch may be sent in parts
+	 */
+	boolean mayFlushBatch() {
+		return true;
+	}
+
 	Lock batchLock = new ReentrantLock();
 
+	/** Matches statements reading from STDIN, which can't be pipelined */
+	private static final Pattern STDIN_PATTERN =
+		Pattern.compile("\\bSTDIN\\b", Pattern.CASE_INSENSITIVE);
+
 	/**
 	 * Submits a batch of commands to the database for execution and if
 	 * all commands execute successfully, returns an array of update
@@ -197,76 +261,104 @@ public class MonetStatement
 		// operations we execute below
 
 		batchLock.lock();
+		beginExecution();
 		try {
 			// don't think long if there isn't much to do
-			if (batch.isEmpty())
+			if (batch.size() == 0)
 				return new int[0];
 
-			int[] counts = new int[batch.size()];
-			int offset = 0;
-			boolean first = true;
-			boolean error = false;
-
-			BatchUpdateException e = new BatchUpdateException("Error(s) occurred while executing the batch, see next SQLExceptions for details", "22000", counts);
-			StringBuilder tmpBatch = new StringBuilder(MapiSocket.BLOCK);
-			String sep = connection.queryTempl[2];
-			for (int i = 0; i < batch.size(); i++) {
-				String tmp = batch.get(i);
-				if (sep.length() + tmp.length() > MapiSocket.BLOCK) {
-					// The thing is too big.  Way too big.  Since it won't
-					// be optimal anyway, just add it to whatever we have
-					// and continue.
-					if (!first)
-						tmpBatch.append(sep);
-					tmpBatch.append(tmp);
-					// send and receive
-					error |= internalBatch(tmpBatch.toString(), counts, offset, i + 1, e);
-					offset = i;
-					tmpBatch.delete(0, tmpBatch.length());
-					first = true;
-					continue;
-				}
-				if (tmpBatch.length() + sep.length() + tmp.length() >= MapiSocket.BLOCK) {
-					// send and receive
-					error |= internalBatch(tmpBatch.toString(), counts, offset, i + 1, e);
-					offset = i;
-					tmpBatch.delete(0, tmpBatch.length());
-					first = true;
-				}
-				if (!first) tmpBatch.append(sep);
-				first = false;
-				tmpBatch.append(tmp);
-			}
-			// send and receive
-			error |= internalBatch(tmpBatch.toString(), counts, offset, counts.length, e);
+			batch.endChunk();
+			executeBatchChunks();
+
+			int[] counts = batch.getCounts();
+			List<SQLException> errors = batch.errors;
+			batch.clear();
 
 			// throw BatchUpdateException if it contains something
-			if (error)
+			if (!errors.isEmpty()) {
+				BatchUpdateException e = new BatchUpdateException("Error(s) occurred while executing the batch, see next SQLExceptions for details", "22000", counts);
+				for (SQLException ex : errors)
+					e.setNextException(ex);
 				throw e;
+			}
 			// otherwise just return the counts
 			return counts;
+		} catch (SQLException e) {
+			throw executionError(e);
 		} finally {
 			batchLock.unlock();
+			endExecution();
 		}
 	}
 
-	private boolean internalBatch(
+	/**
+	 * Executes the complete chunks of the batch which have not been
+	 * executed yet.  Their update counts and errors are stored in the
+	 * batch.
+	 */
+	private void executeBatchChunks() {
+		final List<String> chunks = batch.chunks;
+		if (chunks.isEmpty())
+			return;
+
+		final int[] counts = batch.counts;
+		final int[] offsets = batch.chunkOffsets;
+		final int[] ends = batch.chunkEnds;
+		final List<SQLException> errors = batch.errors;
+		if (chunks.size() == 1 || batch.readsStdin) {
+			// send and receive each chunk in turn
+			for (int i = 0; i < chunks.size(); i++)
+				internalBatch(chunks.get(i), counts, offsets[i], ends[i], errors);
+		} else {
+			// stream all chunks, while receiving the results of the
+			// chunks sent so far
+			try {
+				connection.executePipelined(chunks, queryTimeout, new MonetConnection.PipelineReceiver() {
+					@Override
+					public void receive(int index) {
+						internalBatch(null, counts, offsets[index], ends[index], errors);
+					}
+				});
+			} catch (SQLException ex) {
+				errors.add(ex);
+			}
+		}
+		batch.chunksExecuted();
+	}
+
+	/**
+	 * Executes a chunk of the batch and stores its update counts in
+	 * counts, starting at offset.
+	 *
+	 * @param batch the chunk to execute, or null to read the results
+	 *        of a chunk sent as part of a pipeline
+	 * @param counts the update counts of the whole batch
+	 * @param offset the index in counts of the first statement of the chunk
+	 * @param max the maximum index in counts for the chunk
+	 * @param errors the list to add errors to
+	 */
+	private void internalBatch(
 			String batch,
 			int[] counts,
 			int offset,
 			int max,
-			BatchUpdateException e)
-		throws BatchUpdateException
+			List<SQLException> errors)
 	{
 		try {
-			boolean type = internalExecute(batch);
+			boolean type;
+			if (batch != null) {
+				type = internalExecute(batch);
+			} else {
+				newResponseList().receiveQuery();
+				type = getMoreResults();
+			}
 			int count = -1;
 			if (!type) count = getUpdateCount();
 			do {
 				if (offset >= max)
 					throw new SQLException("Overflow: don't use multi statements when batching (" + max + ")", "M1M16");
 				if (type) {
-					e.setNextException(
+					errors.add(
 						new SQLException("Batch query produced a ResultSet! " +
 							"Ignoring and setting update count to " +
 							"value " + EXECUTE_FAILED, "M1M17"));
@@ -278,25 +370,168 @@ public class MonetStatement
 			} while ((type = getMoreResults()) ||
 					(count = getUpdateCount()) != -1);
 		} catch (SQLException ex) {
-			e.setNextException(ex);
+			errors.add(ex);
 			for (; offset < max; offset++) {
 				counts[offset] = EXECUTE_FAILED;
 			}
-			return true;
 		}
-		return false;
+	}
+
+	/**
+	 * The queries of a batch, kept in the form in which they are sent
+	 * to the server.  Each query added is appended to the chunk being
+	 * built, separated from its predecessor.  When a chunk is full, it
+	 * is completed, such that executing the batch is just sending its
+	 * chunks.  The statements of each chunk are recorded, to map the
+	 * results of a chunk back to the update counts of its statements.
+	 */
+	private static final class BatchBuffer {
+		/** The complete chunks which have not been executed yet */
+		final List<String> chunks = new ArrayList<String>();
+		/** The index of the first statement of each complete chunk */
+		int[] chunkOffsets = new int[8];
+		/** The index after the last statement of each complete chunk */
+		int[] chunkEnds = new int[8];
+		/** The chunk being built */
+		private StringBuilder current = new StringBuilder(MapiSocket.BLOCK);
+		/** The index of the first statement of the chunk being built */
+		private int currentOffset = 0;
+		/** The number of statements in the batch */
+		private int size = 0;
+		/** The number of characters of the complete chunks */
+		private long pendingLength = 0;
+		/** Whether one of the statements reads from STDIN, the
+		 *  server would read the chunks after it as its input, hence
+		 *  the chunks cannot be pipelined */
+		boolean readsStdin = false;
+		/** The update counts of the executed chunks */
+		int[] counts = new int[0];
+		/** The errors of the executed chunks */
+		List<SQLException> errors = new ArrayList<SQLException>();
+
+		/**
+		 * Adds the given query to the batch.
+		 *
+		 * @param sql the query to add
+		 * @param sep the separator of queries
+		 */
+		void add(String sql, String sep) {
+			if (!readsStdin && STDIN_PATTERN.matcher(sql).find())
+				readsStdin = true;
+			if (sep.length() + sql.length() > MapiSocket.BLOCK) {
+				// The thing is too big.  Way too big.  Since it won't
+				// be optimal anyway, just add it to whatever we have
+				// and continue.
+				if (current.length() > 0)
+					current.append(sep);
+				current.append(sql);
+				size++;
+				endChunk();
+				return;
+			}
+			if (current.length() + sep.length() + sql.length() >= MapiSocket.BLOCK)
+				endChunk();
+			if (current.length() > 0)
+				current.append(sep);
+			current.append(sql);
+			size++;
+		}
+
+		/**
+		 * Completes the chunk being built, if it has any statements.
+		 */
+		void endChunk() {
+			if (currentOffset == size)
+				return;
+			int n = chunks.size();
+			if (n == chunkOffsets.length) {
+				chunkOffsets = Arrays.copyOf(chunkOffsets, n * 2);
+				chunkEnds = Arrays.copyOf(chunkEnds, n * 2);
+			}
+			chunkOffsets[n] = currentOffset;
+			chunkEnds[n] = size;
+			chunks.add(current.toString());
+			pendingLength += current.length();
+			current.setLength(0);
+			currentOffset = size;
+			// make room for the update counts of the new chunk
+			if (counts.length < size)
+				counts = Arrays.copyOf(counts, Math.max(size, counts.length * 2));
+		}
+
+		/**
+		 * Forgets the complete chunks, after they have been executed.
+		 */
+		void chunksExecuted() {
+			chunks.clear();
+			pendingLength = 0;
+		}
+
+		/**
+		 * Returns the number of statements in the batch.
+		 *
+		 * @return the number of statements
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the number of characters of the complete chunks,
+		 * which are ready to be executed.
+		 *
+		 * @return the number of characters waiting to be sent
+		 */
+		long pendingLength() {
+			return pendingLength;
+		}
+
+		/**
+		 * Returns the update counts of all statements in the batch.
+		 *
+		 * @return the update counts
+		 */
+		int[] getCounts() {
+			return Arrays.copyOf(counts, size);
+		}
+
+		/**
+		 * Empties this batch.
+		 */
+		void clear() {
+			chunks.clear();
+			// don't keep the buffer of a huge statement
+			if (current.capacity() > MapiSocket.BLOCK) {
+				current = new StringBuilder(MapiSocket.BLOCK);
+			} else {
+				current.setLength(0);
+			}
+			currentOffset = 0;
+			size = 0;
+			pendingLength = 0;
+			readsStdin = false;
+			counts = new int[0];
+			errors = new ArrayList<SQLException>();
+		}
 	}
 
 	/**
 	 * Cancels this Statement object if both the DBMS and driver support aborting an SQL statement.
 	 * This method can be used by one thread to cancel a statement that is being executed by another thread.
 	 *
+	 * MonetDB cannot interrupt a query of a session from within that
+	 * session, hence the connection is aborted to stop the query.  The
+	 * executing thread gets an SQLException with SQLState HY008 and
+	 * the connection is closed.  If no query is in progress, this
+	 * method does nothing.
+	 *
 	 * @throws SQLException - if a database access error occurs or this method is called on a closed Statement
-	 * @throws SQLFeatureNotSupportedException - if the JDBC driver does not support this method
 	 */
 	@Override
 	public void cancel() throws SQLException {
-		throw new SQLFeatureNotSupportedException("Query cancelling is currently not supported by the driver.", "0A000");
+		if (closed)
+			throw new SQLException("Cannot call on closed Statement", "M1M20");
+		stopExecution(CANCEL_CANCELLED);
 	}
 
 	/**
@@ -318,7 +553,8 @@ public class MonetStatement
 	 * Calling the method close on a Statement object that is already closed has
 	 * no effect.
 	 *
-	 * A Statement object is automatically closed when it is garbage collected.
+	 * When a Statement object is garbage collected without being closed, the
+	 * server side resources of its results are freed by its Connection.
 	 * When a Statement object is closed, its current ResultSet object, if one
 	 * exists, is also closed.
 	 */
@@ -329,6 +565,7 @@ public class MonetStatement
 			lastResponseList.close();
 			lastResponseList = null;
 		}
+		connection.unregisterStatement(registration);
 		closed = true;
 	}
 
@@ -500,6 +737,199 @@ public class MonetStatement
 	 * @throws SQLException if a database access error occurs
 	 */
 	private boolean internalExecute(String sql) throws SQLException {
+		connection.noteStatement(sql);
+		beginExecution();
+		try {
+			// fill the header list by processing the query
+			newResponseList().processQuery(sql);
+		} catch (SQLException e) {
+			throw executionError(e);
+		} finally {
+			endExecution();
+		}
+
+		return getMoreResults();
+	}
+
+	/**
+	 * Performs the steps to execute a query which is written by the
+	 * given QueryWriter directly to the server, instead of given as
+	 * String.
+	 *
+	 * @param query the writer of the query to execute
+	 * @return false if there is no result set to return, true otherwise
+	 * @throws SQLException if a database error occurs
+	 */
+	boolean internalExecute(MonetConnection.QueryWriter query) throws SQLException {
+		beginExecution();
+		try {
+			// fill the header list by processing the query
+			newResponseList().processQuery(query);
+		} catch (SQLException e) {
+			throw executionError(e);
+		} finally {
+			endExecution();
+		}
+
+		return getMoreResults();
+	}
+
+	/**
+	 * Performs the steps to execute a COPY INTO ... FROM STDIN query,
+	 * sending the given data when the server asks for it.
+	 *
+	 * @param sql the query to execute
+	 * @param data the data to load
+	 * @return false if there is no result set to return, true otherwise
+	 * @throws SQLException if a database error occurs or reading the
+	 *         data fails
+	 */
+	boolean internalCopyIn(String sql, Reader data) throws SQLException {
+		beginExecution();
+		try {
+			// fill the header list by processing the query
+			newResponseList().processCopyIn(sql, data);
+		} catch (SQLException e) {
+			throw executionError(e);
+		} finally {
+			endExecution();
+		}
+
+		return getMoreResults();
+	}
+
+	/**
+	 * Marks the start of the execution of a query, which can be
+	 * stopped by cancel() from now on.  When a query timeout is set,
+	 * the shared timer of the driver is asked to stop the query when
+	 * it expires.  Calls may nest, only the outermost one counts.
+	 */
+	private void beginExecution() {
+		if (executionDepth++ > 0)
+			return;
+		cancelLock.lock();
+		try {
+			executing = true;
+			cancelReason = CANCEL_NONE;
+		} finally {
+			cancelLock.unlock();
+		}
+		if (queryTimeout > 0) {
+			timeoutTask = MonetConnection.scheduleTimeout(new Runnable() {
+				@Override
+				public void run() {
+					stopExecution(CANCEL_TIMEOUT);
+				}
+			}, queryTimeout * 1000L);
+		}
+	}
+
+	/**
+	 * Marks the end of the execution of a query, after which cancel()
+	 * has no effect any more.  If the query was stopped by cancel() or
+	 * by its query timeout just as it completed, the connection has
+	 * been aborted anyway.  Then the connection is closed, and an
+	 * exception telling so is thrown, as the query may not have been
+	 * completed at the server, and its results may be incomplete.
+	 *
+	 * @throws SQLException if the query was stopped
+	 */
+	private void endExecution() throws SQLException {
+		if (--executionDepth > 0)
+			return;
+		if (timeoutTask != null) {
+			timeoutTask.cancel(false);
+			timeoutTask = null;
+		}
+		int reason;
+		cancelLock.lock();
+		try {
+			// executionError() already reported the stop, if any
+			reason = executing ? cancelReason : CANCEL_NONE;
+			executing = false;
+		} finally {
+			cancelLock.unlock();
+		}
+		if (reason != CANCEL_NONE)
+			throw stoppedError(reason);
+	}
+
+	/**
+	 * Stops the query in progress, if any.  The server offers no way to
+	 * interrupt a query from within the same session, hence the
+	 * connection is aborted, which ends the query on the server as
+	 * well.  The thread executing the query gets an error, see
+	 * executionError().
+	 *
+	 * @param reason why the query is stopped
+	 */
+	private void stopExecution(int reason) {
+		cancelLock.lock();
+		try {
+			if (!executing || cancelReason != CANCEL_NONE)
+				return;
+			cancelReason = reason;
+			connection.abortQuery();
+		} finally {
+			cancelLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the exception to throw for an error which occurred while
+	 * executing a query.  If the query was stopped by cancel() or by
+	 * its query timeout, this is an exception telling so, with the
+	 * given error as next exception.  The aborted connection is
+	 * closed then.
+	 *
+	 * @param e the error which occurred
+	 * @return the exception to throw
+	 */
+	private SQLException executionError(SQLException e) {
+		// only the outermost execution reports the stop
+		if (executionDepth > 1)
+			return e;
+		int reason;
+		cancelLock.lock();
+		try {
+			reason = cancelReason;
+			// the execution has failed, it cannot be stopped any more
+			executing = false;
+		} finally {
+			cancelLock.unlock();
+		}
+		if (reason == CANCEL_NONE)
+			return e;
+
+		SQLException ret = stoppedError(reason);
+		ret.setNextException(e);
+		return ret;
+	}
+
+	/**
+	 * Closes the connection, which was aborted to stop a query, and
+	 * returns the exception telling why the query was stopped.
+	 *
+	 * @param reason why the query was stopped
+	 * @return the exception to throw
+	 */
+	private SQLException stoppedError(int reason) {
+		connection.close();
+		if (reason == CANCEL_TIMEOUT) {
+			return new SQLTimeoutException("Query timeout of " + queryTimeout +
+					" seconds expired, the connection has been closed", "HYT00");
+		}
+		return new SQLException("Query was cancelled, the connection has been closed", "HY008");
+	}
+
+	/**
+	 * Closes the previous ResponseList, if not closed already, and
+	 * creates a new one to hold the results of the next query.
+	 *
+	 * @return the new ResponseList, which is also stored as lastResponseList
+	 * @throws SQLException if a database error occurs
+	 */
+	private MonetConnection.ResponseList newResponseList() throws SQLException {
 		// close previous query, if not closed already
 		if (lastResponseList != null) {
 			lastResponseList.close();
@@ -510,13 +940,12 @@ public class MonetStatement
 		lastResponseList = connection.new ResponseList(
 			fetchSize,
 			maxRows,
+			queryTimeout,
 			resultSetType,
 			resultSetConcurrency
 		);
-		// fill the header list by processing the query
-		lastResponseList.processQuery(sql);
-
-		return getMoreResults();
+		lastResponseList.registration = registration;
+		return lastResponseList;
 	}
 
 	/**
@@ -834,26 +1263,7 @@ public class MonetStatement
 	 */
 	@Override
 	public int getQueryTimeout() throws SQLException {
-		Statement st = null;
-		ResultSet rs = null;
-		try {
-			st = connection.createStatement();
-			rs = st.executeQuery("SELECT \"querytimeout\" FROM \"sys\".\"sessions\"() WHERE \"active\"");
-			if (rs != null && rs.next()) {
-				// MonetDB stores querytimeout in a bigint, so correctly deal with big int values
-				long timeout = rs.getLong(1);
-				return (timeout > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) timeout;
-			}
-		/* do not catch SQLException here, as we want to know it when it fails */
-		} finally {
-			if (rs != null) {
-				rs.close();
-			}
-			if (st != null) {
-				 st.close();
-			}
-		}
-		return 0;	// in case the query didn't return a result (which should normally never happen)
+		return queryTimeout;
 	}
 
 	/**
@@ -1099,6 +1509,13 @@ public class MonetStatement
 	 * object to execute to the given number of seconds. If the limit is
 	 * exceeded, an SQLException is thrown.
 	 *
+	 * The query timeout of the server session is set along with the
+	 * next query of this Statement, and only if it differs from the
+	 * timeout the session already has, so calling this method costs no
+	 * round trip to the server.  Besides, the driver enforces the limit
+	 * itself: when it expires, the query is stopped like cancel() does,
+	 * and an SQLTimeoutException is thrown.
+	 *
 	 * @param seconds the new query timeout limit in seconds; zero means
 	 *        there is no limit
 	 * @throws SQLException if a database access error occurs or the
@@ -1108,18 +1525,7 @@ public class MonetStatement
 	public void setQueryTimeout(int seconds) throws SQLException {
 		if (seconds < 0)
 			throw new SQLException("Illegal timeout value: " + seconds, "M1M05");
-
-		Statement st = null;
-		try {
-			st = connection.createStatement();
-			// CALL "sys"."settimeout"(int_value)
-			st.execute("CALL \"sys\".\"settimeout\"(" + seconds + ")");
-		/* do not catch SQLException here, as we want to know it when it fails */
-		} finally {
-			if (st != null) {
-				 st.close();
-			}
-		}
+		queryTimeout = seconds;
 	}
 
 	//== 1.6 methods (JDBC 4.0)
@@ -27,12 +27,20 @@ import java.sql.SQLOutput;
  * off, then the netmask is 32, and the value represents just a single
  * host. On display, the /y portion is suppressed if the netmask is 32.
  *
+ * The address is kept in packed form, as an int holding the four
+ * quads and the number of netmask bits.  This allows to compare values
+ * and test whether one network contains another without any String
+ * manipulation, see compareTo() and contains().
+ *
  * This class allows to retrieve the value of this INET as InetAddress.
  * This is probably meaningful only and only if the netmask is 32.
  * The getNetmaskBits() method can be used to retrieve the subnet bits.
  */
-public class INET implements SQLData {
-	private String inet;
+public class INET implements SQLData, Comparable<INET> {
+	/** the IPv4 address, most significant quad in the highest byte */
+	private int address;
+	/** the number of netmask bits, 0 when this INET is null */
+	private int netmask;
 
 	@Override
 	public String getSQLTypeName() {
@@ -43,71 +51,97 @@ public class INET implements SQLData {
 	public void readSQL(SQLInput stream, String typeName) throws SQLException {
 		if (!"inet".equals(typeName))
 			throw new SQLException("can only use this class with 'inet' type", "M1M05");
-		inet = stream.readString();
+		fromString(stream.readString());
 	}
 
 	@Override
 	public void writeSQL(SQLOutput stream) throws SQLException {
-		stream.writeString(inet);
+		stream.writeString(toString());
 	}
 
 	@Override
 	public String toString() {
-		return inet;
+		if (netmask == 0)
+			return null;
+		if (netmask == 32)
+			return getAddress();
+		return getAddress() + "/" + netmask;
 	}
 
 	public void fromString(String newinet) throws SQLException {
 		if (newinet == null) {
-			inet = newinet;
+			address = 0;
+			netmask = 0;
 			return;
 		}
-		String tinet = newinet;
-		int slash = newinet.indexOf('/');
-		if (slash != -1) {
-			int netmask;
-			// ok, see if it is a valid netmask
-			try {
-				netmask = Integer.parseInt(newinet.substring(slash + 1));
-			} catch (NumberFormatException nfe) {
-				throw new SQLDataException("cannot parse netmask bits: " +
-						newinet.substring(slash + 1), "22M29");
+
+		// parse the dotted quad and optional netmask in a single pass
+		final int len = newinet.length();
+		int addr = 0, quad = 0, digits = 0, quads = 0;
+		int pos = 0;
+		for (; pos < len; pos++) {
+			char c = newinet.charAt(pos);
+			if (c >= '0' && c <= '9') {
+				quad = quad * 10 + (c - '0');
+				if (++digits > 3 || quad > 255)
+					throw new SQLDataException("value must be between 0 and 255: " +
+							newinet.substring(pos - digits + 1, pos + 1), "22M29");
+			} else if (c == '.' || c == '/') {
+				if (digits == 0)
+					throw new SQLDataException("cannot parse number: " + newinet, "22M29");
+				if (c == '.' ? quads >= 3 : quads != 3)
+					throw new SQLDataException("expected dotted quad (xxx.xxx.xxx.xxx)", "22M29");
+				addr = (addr << 8) | quad;
+				quads++;
+				quad = 0;
+				digits = 0;
+				if (c == '/')
+					break;
+			} else {
+				throw new SQLDataException("cannot parse number: " + newinet, "22M29");
 			}
-			if (netmask <= 0 || netmask > 32)
-				throw new SQLDataException("netmask must be >0 and <32", "22M29");
-			tinet = newinet.substring(0, slash);
 		}
-		// check dotted quad
-		String quads[] = tinet.split("\\.");
-		if (quads.length != 4)
-			throw new SQLDataException("expected dotted quad (xxx.xxx.xxx.xxx)", "22M29");
-		for (int i = 0; i < 4; i++) {
-			int quadv;
-			try {
-				quadv = Integer.parseInt(quads[i]);
-			} catch (NumberFormatException nfe) {
-				throw new SQLDataException("cannot parse number: " + quads[i], "22M29");
+		int bits = 32;
+		if (pos < len) {
+			// we stopped at the slash, what follows is the netmask
+			bits = 0;
+			if (pos + 1 == len || len - pos > 3)
+				throw new SQLDataException("cannot parse netmask bits: " +
+						newinet.substring(pos + 1), "22M29");
+			for (pos++; pos < len; pos++) {
+				char c = newinet.charAt(pos);
+				if (c < '0' || c > '9')
+					throw new SQLDataException("cannot parse netmask bits: " +
+							newinet.substring(newinet.indexOf('/') + 1), "22M29");
+				bits = bits * 10 + (c - '0');
 			}
-			if (quadv < 0 || quadv > 255)
-				throw new SQLDataException("value must be between 0 and 255: " + quads[i], "22M29");
+			if (bits <= 0 || bits > 32)
+				throw new SQLDataException("netmask must be >0 and <32", "22M29");
+		} else {
+			if (digits == 0 || quads != 3)
+				throw new SQLDataException("expected dotted quad (xxx.xxx.xxx.xxx)", "22M29");
+			addr = (addr << 8) | quad;
 		}
 		// everything is fine
-		inet = newinet;
+		address = addr;
+		netmask = bits;
 	}
 
 	public String getAddress() {
-		if (inet == null)
+		if (netmask == 0)
 			return null;
 
-		// inet optionally has a /y part, if y < 32, chop it off
-		int slash = inet.indexOf('/');
-		if (slash != -1)
-			return inet.substring(0, slash);
-		return inet;
+		StringBuilder sb = new StringBuilder(15);
+		sb.append(address >>> 24).append('.')
+			.append((address >>> 16) & 0xFF).append('.')
+			.append((address >>> 8) & 0xFF).append('.')
+			.append(address & 0xFF);
+		return sb.toString();
 	}
 
 	public void setAddress(String newinet) throws Exception {
 		if (newinet == null) {
-			inet = newinet;
+			fromString(null);
 			return;
 		}
 		if (newinet.indexOf('/') != -1)
@@ -117,42 +151,24 @@ public class INET implements SQLData {
 	}
 
 	public int getNetmaskBits() throws SQLException {
-		if (inet == null)
-			return 0;
-
-		// if netmask is 32, it is omitted in the output
-		int slash = inet.indexOf('/');
-		if (slash == -1)
-			return 32;
-		try {
-			return Integer.parseInt(inet.substring(slash + 1));
-		} catch (NumberFormatException nfe) {
-			throw new SQLDataException("cannot parse netmask bits: " +
-					inet.substring(slash + 1), "22M29");
-		}
+		return netmask;
 	}
 
 	public void setNetmaskBits(int bits) throws Exception {
-		String newinet = inet;
-		if (newinet == null) {
-			newinet = "0.0.0.0/" + bits;
-		} else {
-			int slash = newinet.indexOf('/');
-			if (slash != -1) {
-				newinet = newinet.substring(0, slash + 1) + bits;
-			} else {
-				newinet = newinet + "/" + bits;
-			}
-		}
-		fromString(newinet);
+		if (bits <= 0 || bits > 32)
+			throw new SQLDataException("netmask must be >0 and <32", "22M29");
+		netmask = bits;
 	}
 
 	public InetAddress getInetAddress() throws SQLException {
-		if (inet == null)
+		if (netmask == 0)
 			return null;
 
 		try {
-			return InetAddress.getByName(getAddress());
+			// getByAddress() does not perform a name service lookup
+			return InetAddress.getByAddress(new byte[] {
+				(byte)(address >>> 24), (byte)(address >>> 16),
+				(byte)(address >>> 8), (byte)address });
 		} catch (UnknownHostException uhe) {
 			throw new SQLDataException("could not resolve IP address", "22M29");
 		}
@@ -161,6 +177,95 @@ public class INET implements SQLData {
 	public void setInetAddress(InetAddress iaddr) throws Exception {
 		if (!(iaddr instanceof Inet4Address))
 			throw new Exception("only IPv4 are supported currently");
-		fromString(iaddr.getHostAddress());
+		byte[] b = iaddr.getAddress();
+		address = ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16) |
+			((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+		netmask = 32;
+	}
+
+	/**
+	 * Returns the IPv4 address packed in an int, with the first quad in
+	 * the most significant byte.
+	 *
+	 * @return the packed address, 0 if this INET is null
+	 */
+	public int getPackedAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns the network address of this INET, i.e. the packed address
+	 * with all host bits (those not covered by the netmask) cleared.
+	 *
+	 * @return the packed network address, 0 if this INET is null
+	 */
+	public int getPackedNetwork() {
+		return address & mask(netmask);
+	}
+
+	/**
+	 * Returns whether the given INET lies within the network of this
+	 * INET.  This is the case when its netmask is at least as long as
+	 * ours and both addresses are equal on our netmask bits, like the
+	 * SQL operator &lt;&lt;= with this INET as the right operand.
+	 *
+	 * @param other the INET to test
+	 * @return true if other is contained in this network
+	 */
+	public boolean contains(INET other) {
+		if (other == null || netmask == 0 || other.netmask == 0)
+			return false;
+		final int m = mask(netmask);
+		return other.netmask >= netmask && (other.address & m) == (address & m);
+	}
+
+	/**
+	 * Returns whether the given packed IPv4 address lies within the
+	 * network of this INET.
+	 *
+	 * @param packedAddress an address as returned by getPackedAddress()
+	 * @return true if the address is contained in this network
+	 */
+	public boolean contains(int packedAddress) {
+		if (netmask == 0)
+			return false;
+		final int m = mask(netmask);
+		return (packedAddress & m) == (address & m);
+	}
+
+	/**
+	 * Compares this INET to the given one, by unsigned address first
+	 * and netmask length second.  Null values sort first.
+	 *
+	 * @param other the INET to compare with
+	 * @return a negative integer, zero, or a positive integer as this
+	 *         INET is less than, equal to, or greater than other
+	 */
+	@Override
+	public int compareTo(INET other) {
+		// flip the sign bit to compare the addresses as unsigned ints
+		int a = address ^ Integer.MIN_VALUE;
+		int b = other.address ^ Integer.MIN_VALUE;
+		if (a != b)
+			return a < b ? -1 : 1;
+		return netmask < other.netmask ? -1 : (netmask == other.netmask ? 0 : 1);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof INET))
+			return false;
+		INET other = (INET)obj;
+		return address == other.address && netmask == other.netmask;
+	}
+
+	@Override
+	public int hashCode() {
+		return address * 31 + netmask;
+	}
+
+	/* returns the netmask for the given number of bits as int */
+	private static int mask(int bits) {
+		return bits == 0 ? 0 : -1 << (32 - bits);
 	}
 }
@@ -8,19 +8,31 @@
 
 package nl.cwi.monetdb.mcl.io;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 
 /**
  * Read text from a character-input stream, buffering characters so as
  * to provide a means for efficient reading of characters, arrays and
- * lines.  This class is based on the BufferedReader class, and provides
+ * lines.  This class behaves like the BufferedReader class, and provides
  * extra functionality useful for MCL.
  *
+ * Unlike BufferedReader, this class does its own buffering and
+ * decoding, without taking any monitor: on Java 21 a blocking read
+ * inside a monitor pins the carrier thread of a virtual thread.  Like
+ * the other classes of the driver, it leaves guarding concurrent use to
+ * the user of the connection.
+ *
  * The BufferedMCLReader is typically used as layer inbetween an
  * InputStream and a specific interpreter of the data.
  * <pre>
@@ -41,7 +53,7 @@ import java.io.UnsupportedEncodingException;
  * @see nl.cwi.monetdb.mcl.net.MapiSocket
  * @see nl.cwi.monetdb.mcl.io.BufferedMCLWriter
  */
-public class BufferedMCLReader extends BufferedReader {
+public class BufferedMCLReader extends Reader {
 	/** "there is currently no line", or the the type is unknown is represented by UNKNOWN */
 	public final static int UNKNOWN  = 0;
 	/** a line starting with ! indicates ERROR */
@@ -64,6 +76,23 @@ public class BufferedMCLReader extends BufferedReader {
 	/** The type of the last line read */
 	private int lineType;
 
+	/** The Reader to read the characters from, null if decoding bytes */
+	private final Reader reader;
+	/** The InputStream to read the bytes from, null if using a Reader */
+	private final InputStream stream;
+	/** The decoder of the bytes from stream */
+	private final CharsetDecoder decoder;
+	/** The bytes read from stream which are not decoded yet */
+	private final ByteBuffer bytes;
+	/** The buffered characters, those from pos up to end are unread */
+	private final char[] buf = new char[8192];
+	private int pos = 0;
+	private int end = 0;
+	/** Whether the end of the input has been reached */
+	private boolean eof = false;
+	/** Whether the last line ended with a \r, a next \n belongs to it */
+	private boolean skipLF = false;
+
 	/**
 	 * Create a buffering character-input stream that uses a
 	 * default-sized input buffer.
@@ -71,7 +100,10 @@ public class BufferedMCLReader extends BufferedReader {
 	 * @param in A Reader
 	 */
 	public BufferedMCLReader(Reader in) {
-		super(in);
+		reader = in;
+		stream = null;
+		decoder = null;
+		bytes = null;
 	}
 
 	/**
@@ -85,7 +117,117 @@ public class BufferedMCLReader extends BufferedReader {
 	public BufferedMCLReader(InputStream in, String enc)
 		throws UnsupportedEncodingException
 	{
-		super(new InputStreamReader(in, enc));
+		Charset cs;
+		try {
+			cs = Charset.forName(enc);
+		} catch (IllegalCharsetNameException e) {
+			throw new UnsupportedEncodingException(enc);
+		} catch (UnsupportedCharsetException e) {
+			throw new UnsupportedEncodingException(enc);
+		}
+		reader = null;
+		stream = in;
+		// like InputStreamReader, replace what cannot be decoded
+		decoder = cs.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		bytes = ByteBuffer.allocate(8192);
+		bytes.flip();
+	}
+
+	/**
+	 * Reads characters into a portion of an array.
+	 *
+	 * @param cbuf the destination buffer
+	 * @param off the offset at which to start storing characters
+	 * @param len the maximum number of characters to read
+	 * @return the number of characters read, or -1 if the end of the
+	 *         stream has been reached
+	 * @throws IOException If an I/O error occurs
+	 */
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (skipLF) {
+			if (pos == end && !fill())
+				return -1;
+			if (buf[pos] == '\n')
+				pos++;
+			skipLF = false;
+		}
+		if (pos == end && !fill())
+			return -1;
+		int n = Math.min(len, end - pos);
+		System.arraycopy(buf, pos, cbuf, off, n);
+		pos += n;
+		return n;
+	}
+
+	/**
+	 * Closes the stream and releases any system resources associated
+	 * with it.
+	 *
+	 * @throws IOException If an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		if (reader != null) {
+			reader.close();
+		} else {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Reads more characters into the buffer, which must be empty.  It
+	 * blocks until at least one character is available, but it does
+	 * not read more of the input than needed to get one.
+	 *
+	 * @return false if the end of the input has been reached
+	 * @throws IOException If an I/O error occurs
+	 */
+	private boolean fill() throws IOException {
+		pos = end = 0;
+		if (eof)
+			return false;
+		if (reader != null) {
+			int n;
+			do {
+				n = reader.read(buf, 0, buf.length);
+			} while (n == 0);
+			if (n < 0) {
+				eof = true;
+				return false;
+			}
+			end = n;
+			return true;
+		}
+		CharBuffer chars = CharBuffer.wrap(buf);
+		while (true) {
+			CoderResult cr = decoder.decode(bytes, chars, false);
+			if (cr.isError())
+				cr.throwException();
+			if (chars.position() > 0)
+				break;
+			// read more, keeping the start of an incomplete character
+			bytes.compact();
+			int n = stream.read(bytes.array(), bytes.position(), bytes.remaining());
+			if (n < 0) {
+				bytes.flip();
+				decoder.decode(bytes, chars, true);
+				decoder.flush(chars);
+				decoder.reset();
+				bytes.clear();
+				bytes.flip();
+				eof = true;
+				break;
+			}
+			bytes.position(bytes.position() + n);
+			bytes.flip();
+		}
+		end = chars.position();
+		return end > 0;
 	}
 
 	/**
@@ -105,15 +247,47 @@ public class BufferedMCLReader extends BufferedReader {
 	 *         end of the stream has been reached
 	 * @throws IOException If an I/O error occurs
 	 */
-	@Override
 	public String readLine() throws IOException {
-		String r = super.readLine();
+		String r = nextLine();
 		setLineType(r);
 		if (lineType == ERROR && !r.matches("^![0-9A-Z]{5}!.+"))
 			r = "!22000!" + r.substring(1);
 		return r;
 	}
 	
+	/* reads a line like BufferedReader.readLine() does */
+	private String nextLine() throws IOException {
+		StringBuilder sb = null;
+		while (true) {
+			if (pos == end && !fill())
+				return sb == null ? null : sb.toString();
+			if (skipLF) {
+				if (buf[pos] == '\n')
+					pos++;
+				skipLF = false;
+				continue;
+			}
+			for (int i = pos; i < end; i++) {
+				char c = buf[i];
+				if (c == '\n' || c == '\r') {
+					String line;
+					if (sb == null) {
+						line = new String(buf, pos, i - pos);
+					} else {
+						line = sb.append(buf, pos, i - pos).toString();
+					}
+					pos = i + 1;
+					skipLF = c == '\r';
+					return line;
+				}
+			}
+			if (sb == null)
+				sb = new StringBuilder(80 + end - pos);
+			sb.append(buf, pos, end - pos);
+			pos = end;
+		}
+	}
+
 	/**
 	 * Sets the linetype to the type of the string given.  If the string
 	 * is null, lineType is set to UNKNOWN.
@@ -152,6 +326,11 @@ public class BufferedMCLReader extends BufferedReader {
 			case ',':
 				lineType = MORE;
 				break;
+			case '\001':
+				// the prompt2 of the server: \001\002
+				if (line.length() > 1 && line.charAt(1) == '\002')
+					lineType = MORE;
+				break;
 		}
 	}
 
@@ -179,9 +358,11 @@ public class BufferedMCLReader extends BufferedReader {
 	 * @return a string containing error messages, or null if there aren't any
 	 * @throws IOException if an IO exception occurs while talking to the server
 	 *
-	 * TODO(Wouter): should probably not have to be synchronized.
+	 * Like the other methods of this class, this method is not
+	 * synchronized: the user of the connection guards it, waiting for
+	 * the server should not pin the carrier of a virtual thread.
 	 */
-	final public synchronized String waitForPrompt() throws IOException {
+	final public String waitForPrompt() throws IOException {
 		String tmp;
 		StringBuilder ret = new StringBuilder(128);
 		while (lineType != PROMPT) {
@@ -8,12 +8,18 @@
 
 package nl.cwi.monetdb.mcl.io;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 
 /**
  * Write text to a character-output stream, buffering characters so as
@@ -23,8 +29,14 @@ import java.io.Writer;
  * In contrast to the BufferedWriter class, this class' newLine()
  * method always writes the newline character '\n', regardless the
  * platform's own notion of line separator.  Apart from that there are
- * no differences in the behaviour of this class, compared to its parent
- * class, the BufferedWriter.  A small convenience is built into this
+ * no differences in the behaviour of this class, compared to the
+ * BufferedWriter.  Unlike BufferedWriter, this class does its own
+ * buffering and encoding, without taking any monitor: on Java 21 a
+ * blocking write inside a monitor pins the carrier thread of a virtual
+ * thread.  Like the other classes of the driver, it leaves guarding
+ * concurrent use to the user of the connection.
+ *
+ * A small convenience is built into this
  * class for cooperation with the BufferedMCLReader, via the
  * registerReader() method.  It causes the reader to be reset upon each
  * write performed though this class.  This effectuates the MCL protocol
@@ -36,9 +48,21 @@ import java.io.Writer;
  * @see nl.cwi.monetdb.mcl.net.MapiSocket
  * @see nl.cwi.monetdb.mcl.io.BufferedMCLReader
  */
-public class BufferedMCLWriter extends BufferedWriter {
+public class BufferedMCLWriter extends Writer {
 	private BufferedMCLReader reader;
 
+	/** The Writer to write the characters to, null if encoding bytes */
+	private final Writer writer;
+	/** The OutputStream to write the bytes to, null if using a Writer */
+	private final OutputStream stream;
+	/** The encoder of the characters for stream */
+	private final CharsetEncoder encoder;
+	/** The encoded bytes */
+	private final ByteBuffer bytes;
+	/** The buffered characters, those up to len are not written yet */
+	private final char[] buf = new char[8192];
+	private int len = 0;
+
 	/**
 	 * Create a buffered character-output stream that uses a
 	 * default-sized output buffer.
@@ -46,7 +70,10 @@ public class BufferedMCLWriter extends BufferedWriter {
 	 * @param in A Writer
 	 */
 	public BufferedMCLWriter(Writer in) {
-		super(in);
+		writer = in;
+		stream = null;
+		encoder = null;
+		bytes = null;
 	}
 
 	/**
@@ -60,7 +87,142 @@ public class BufferedMCLWriter extends BufferedWriter {
 	public BufferedMCLWriter(OutputStream in, String enc)
 		throws UnsupportedEncodingException
 	{
-		super(new OutputStreamWriter(in, enc));
+		Charset cs;
+		try {
+			cs = Charset.forName(enc);
+		} catch (IllegalCharsetNameException e) {
+			throw new UnsupportedEncodingException(enc);
+		} catch (UnsupportedCharsetException e) {
+			throw new UnsupportedEncodingException(enc);
+		}
+		writer = null;
+		stream = in;
+		// like OutputStreamWriter, replace what cannot be encoded
+		encoder = cs.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		bytes = ByteBuffer.allocate(3 * buf.length);
+	}
+
+	/**
+	 * Writes a single character.
+	 *
+	 * @param c the character to write
+	 * @throws IOException If an I/O error occurs
+	 */
+	@Override
+	public void write(int c) throws IOException {
+		if (len == buf.length)
+			flushBuffer(false);
+		buf[len++] = (char)c;
+	}
+
+	/**
+	 * Writes a portion of an array of characters.
+	 *
+	 * @param cbuf the characters to write
+	 * @param off the offset from which to start reading characters
+	 * @param n the number of characters to write
+	 * @throws IOException If an I/O error occurs
+	 */
+	@Override
+	public void write(char[] cbuf, int off, int n) throws IOException {
+		while (n > 0) {
+			if (len == buf.length)
+				flushBuffer(false);
+			int c = Math.min(n, buf.length - len);
+			System.arraycopy(cbuf, off, buf, len, c);
+			len += c;
+			off += c;
+			n -= c;
+		}
+	}
+
+	/**
+	 * Writes a portion of a String.
+	 *
+	 * @param str the String to write
+	 * @param off the offset from which to start reading characters
+	 * @param n the number of characters to write
+	 * @throws IOException If an I/O error occurs
+	 */
+	@Override
+	public void write(String str, int off, int n) throws IOException {
+		while (n > 0) {
+			if (len == buf.length)
+				flushBuffer(false);
+			int c = Math.min(n, buf.length - len);
+			str.getChars(off, off + c, buf, len);
+			len += c;
+			off += c;
+			n -= c;
+		}
+	}
+
+	/**
+	 * Flushes the stream: writes the buffered characters and flushes
+	 * the underlying stream.
+	 *
+	 * @throws IOException If an I/O error occurs
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer(true);
+		if (writer != null) {
+			writer.flush();
+		} else {
+			stream.flush();
+		}
+	}
+
+	/**
+	 * Closes the stream, flushing it first.
+	 *
+	 * @throws IOException If an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer(true);
+		} finally {
+			if (writer != null) {
+				writer.close();
+			} else {
+				stream.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffered characters to the underlying stream, without
+	 * flushing it.  Unless all characters are complete, the first half
+	 * of a surrogate pair at the end of the buffer stays behind.
+	 *
+	 * @param all whether all characters are complete
+	 */
+	private void flushBuffer(boolean all) throws IOException {
+		if (len == 0)
+			return;
+		if (writer != null) {
+			writer.write(buf, 0, len);
+			len = 0;
+			return;
+		}
+		CharBuffer chars = CharBuffer.wrap(buf, 0, len);
+		while (true) {
+			CoderResult cr = encoder.encode(chars, bytes, all);
+			if (cr.isError())
+				cr.throwException();
+			stream.write(bytes.array(), 0, bytes.position());
+			bytes.clear();
+			if (!cr.isOverflow())
+				break;
+		}
+		// keep what could not be encoded yet
+		len = chars.remaining();
+		System.arraycopy(buf, chars.position(), buf, 0, len);
+		if (all)
+			encoder.reset();
 	}
 
 	/**
@@ -69,7 +231,6 @@ public class BufferedMCLWriter extends BufferedWriter {
 	 *
 	 * @throws IOException If an I/O error occurs
 	 */
-	@Override
 	public void newLine() throws IOException {
 		write('\n');
 	}
@@ -96,6 +257,18 @@ public class BufferedMCLWriter extends BufferedWriter {
 	 */
 	public void writeLine(String line) throws IOException {
 		write(line);
+		flushLine();
+	}
+
+	/**
+	 * Flush the stream, completing a line which was written using one
+	 * or more write() calls.  Like writeLine(), this resets the state
+	 * of the registered reader.  This allows to write a line in parts,
+	 * without concatenating it into a single String first.
+	 *
+	 * @throws IOException If an I/O error occurs
+	 */
+	public void flushLine() throws IOException {
 		flush();
 		// reset reader state, last line isn't valid any more now
 		if (reader != null)
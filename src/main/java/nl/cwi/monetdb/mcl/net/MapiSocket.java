@@ -21,6 +21,8 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.URI;
@@ -32,6 +34,9 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import nl.cwi.monetdb.mcl.MCLException;
 import nl.cwi.monetdb.mcl.io.BufferedMCLReader;
@@ -90,9 +95,13 @@ import nl.cwi.monetdb.mcl.parser.MCLParseException;
  */
 public final class MapiSocket {
 	/** The TCP Socket to mserver */
-	private Socket con;
+	private volatile Socket con;
+	/** Guards close(), which may block on flushing the writer */
+	private final Lock closeLock = new ReentrantLock();
 	/** The TCP Socket timeout in milliseconds. Default is 0 meaning the timeout is disabled (i.e., timeout of infinity) */
 	private int soTimeout = 0;
+	/** The time to wait for the TCP connection in milliseconds, 0 is infinite */
+	private int connectTimeout = 0;
 	/** Stream from the Socket for reading */
 	private InputStream fromMonet;
 	/** Stream from the Socket for writing */
@@ -214,6 +223,21 @@ public final class MapiSocket {
 		}
 	}
 
+	/**
+	 * Sets the time to wait for the TCP connection to the server to
+	 * be established by connect().  This does not limit the time
+	 * logging in takes, see setSoTimeout for that.
+	 *
+	 * @param millis The timeout in milliseconds.  A timeout of zero
+	 *        is interpreted as an infinite timeout, the default.
+	 */
+	public void setConnectTimeout(int millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("timeout can't be negative");
+		}
+		this.connectTimeout = millis;
+	}
+
 	/**
 	 * Gets the SO_TIMEOUT from the underlying Socket.
 	 *
@@ -256,7 +280,19 @@ public final class MapiSocket {
 	{
 		// Wrap around the internal connect that needs to know if it
 		// should really make a TCP connection or not.
-		return connect(host, port, user, pass, true);
+		try {
+			return connect(host, port, user, pass, true);
+		} catch (IOException e) {
+			// don't leave a half logged in connection open
+			Socket s = con;
+			con = null;
+			if (s != null) {
+				try {
+					s.close();
+				} catch (IOException ce) { /* ignore it */ }
+			}
+			throw e;
+		}
 	}
 
 	private List<String> connect(String host, int port, String user, String pass, boolean makeConnection)
@@ -266,7 +302,16 @@ public final class MapiSocket {
 			throw new MCLException("Maximum number of redirects reached, aborting connection attempt. Sorry.");
 
 		if (makeConnection) {
-			con = new Socket(host, port);
+			Socket s = new Socket();
+			try {
+				s.connect(host == null
+					? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+					: new InetSocketAddress(host, port), connectTimeout);
+			} catch (IOException e) {
+				s.close();
+				throw e;
+			}
+			con = s;
 			con.setSoTimeout(this.soTimeout);
 			// set nodelay, as it greatly speeds up small messages (like we often do)
 			con.setTcpNoDelay(true);
@@ -460,21 +505,9 @@ public final class MapiSocket {
 				// plain password, the server tells us which hash in the
 				// challenge after the byte-order
 
-				/* NOTE: Java doesn't support RIPEMD160 :( */
-				if (chaltok[5].equals("SHA512")) {
-					algo = "SHA-512";
-				} else if (chaltok[5].equals("SHA384")) {
-					algo = "SHA-384";
-				} else if (chaltok[5].equals("SHA256")) {
-					algo = "SHA-256";
-				/* NOTE: Java doesn't support SHA-224 */
-				} else if (chaltok[5].equals("SHA1")) {
-					algo = "SHA-1";
-				} else if (chaltok[5].equals("MD5")) {
-					algo = "MD5";
-				} else {
+				algo = toAlgorithm(chaltok[5]);
+				if (algo == null)
 					throw new MCLException("Unsupported password hash: " + chaltok[5]);
-				}
 
 				try {
 					MessageDigest md = MessageDigest.getInstance(algo);
@@ -498,46 +531,27 @@ public final class MapiSocket {
 				// proto 8, the byte-order of the blocks is always little
 				// endian because most machines today are.
 				String hashes = (hash == null ? chaltok[3] : hash);
-				Set<String> hashesSet = new HashSet<String>(Arrays.asList(hashes.toUpperCase().split("[, ]")));
+				String best = bestHash(hashes);
+				if (best == null)
+					throw new MCLException("no supported password hashes in " + hashes);
 
 				// if we deal with merovingian, mask our credentials
 				if (servert.equals("merovingian") && !language.equals("control")) {
 					username = "merovingian";
 					password = "merovingian";
 				}
-				String pwhash;
-				algo = null;
-
-				if (hashesSet.contains("SHA512")) {
-					algo = "SHA-512";
-					pwhash = "{SHA512}";
-				} else if (hashesSet.contains("SHA384")) {
-					algo = "SHA-384";
-					pwhash = "{SHA384}";
-				} else if (hashesSet.contains("SHA256")) {
-					algo = "SHA-256";
-					pwhash = "{SHA256}";
-				} else if (hashesSet.contains("SHA1")) {
-					algo = "SHA-1";
-					pwhash = "{SHA1}";
-				} else if (hashesSet.contains("MD5")) {
-					algo = "MD5";
-					pwhash = "{MD5}";
-				} else {
-					throw new MCLException("no supported password hashes in " + hashes);
-				}
-				if (algo != null) {
-					try {
-						MessageDigest md = MessageDigest.getInstance(algo);
-						md.update(password.getBytes("UTF-8"));
-						md.update(challenge.getBytes("UTF-8"));
-						byte[] digest = md.digest();
-						pwhash += toHex(digest);
-					} catch (NoSuchAlgorithmException e) {
-						throw new AssertionError("internal error: " + e.toString());
-					} catch (UnsupportedEncodingException e) {
-						throw new AssertionError("internal error: " + e.toString());
-					}
+				algo = toAlgorithm(best);
+				String pwhash = "{" + best + "}";
+				try {
+					MessageDigest md = MessageDigest.getInstance(algo);
+					md.update(password.getBytes("UTF-8"));
+					md.update(challenge.getBytes("UTF-8"));
+					byte[] digest = md.digest();
+					pwhash += toHex(digest);
+				} catch (NoSuchAlgorithmException e) {
+					throw new AssertionError("internal error: " + e.toString());
+				} catch (UnsupportedEncodingException e) {
+					throw new AssertionError("internal error: " + e.toString());
 				}
 				// TODO: some day when we need this, we should store
 				// this
@@ -558,6 +572,58 @@ public final class MapiSocket {
 		}
 	}
 
+	/**
+	 * Returns the name of the MessageDigest algorithm for the given
+	 * hash name used in the MAPI protocol.
+	 *
+	 * @param hash the hash name, such as SHA512
+	 * @return the algorithm name, such as SHA-512, or null if the hash
+	 *         is not supported
+	 */
+	private static String toAlgorithm(String hash) {
+		/* NOTE: Java doesn't support RIPEMD160 :( */
+		if (hash.equals("SHA512"))
+			return "SHA-512";
+		if (hash.equals("SHA384"))
+			return "SHA-384";
+		if (hash.equals("SHA256"))
+			return "SHA-256";
+		/* NOTE: Java doesn't support SHA-224 */
+		if (hash.equals("SHA1"))
+			return "SHA-1";
+		if (hash.equals("MD5"))
+			return "MD5";
+		return null;
+	}
+
+	/** The best supported hash of the hash lists seen before */
+	private static final ConcurrentHashMap<String, String> bestHashes =
+		new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Returns the strongest hash we support from the given comma
+	 * separated list of hash names.  As all servers send the same list,
+	 * the choice is remembered.
+	 *
+	 * @param hashes the hash names, such as SHA1,MD5
+	 * @return the best hash name, or null if none is supported
+	 */
+	private static String bestHash(String hashes) {
+		String best = bestHashes.get(hashes);
+		if (best != null)
+			return best;
+		Set<String> hashesSet = new HashSet<String>(Arrays.asList(hashes.toUpperCase().split("[, ]")));
+		for (String h : new String[] { "SHA512", "SHA384", "SHA256", "SHA1", "MD5" }) {
+			if (hashesSet.contains(h)) {
+				best = h;
+				break;
+			}
+		}
+		if (best != null && bestHashes.size() < 16)
+			bestHashes.put(hashes, best);
+		return best;
+	}
+
 	private static char hexChar(int n) {
 		return (n > 9)
 			? (char) ('a' + (n - 10))
@@ -622,6 +688,26 @@ public final class MapiSocket {
 		return writer;
 	}
 
+	/**
+	 * Reads the response of the server to the last sent message as
+	 * raw bytes, without protocol interpretation.  This is meant for
+	 * responses which are not made up of protocol lines, like the
+	 * output of a COPY ... INTO STDOUT query.  The prompt which ends
+	 * the response is not returned.
+	 *
+	 * Use this only when the BufferedMCLReader has read nothing of the
+	 * response yet, as the bytes it buffered are not returned.
+	 *
+	 * @param b the buffer to read the bytes into
+	 * @param off the offset in the buffer to start at
+	 * @param len the maximum number of bytes to read
+	 * @return the number of bytes read, or -1 at the end of the response
+	 * @throws IOException if an I/O error occurs
+	 */
+	public int readResponse(byte[] b, int off, int len) throws IOException {
+		return ((BlockInputStream)fromMonet).readResponse(b, off, len);
+	}
+
 	/**
 	 * Returns the mapi protocol version used by this socket.  The
 	 * protocol version depends on the server being used.  Users of the
@@ -686,6 +772,9 @@ public final class MapiSocket {
 		private int writePos = 0;
 		private byte[] block = new byte[BLOCK];
 		private int blocksize = 0;
+		/** The block size to write, not shared with the
+		 *  BlockInputStream as it may be reading at the same time */
+		private final byte[] blklen = new byte[2];
 
 		/**
 		 * Constructs this BlockOutputStream, backed by the given
@@ -806,6 +895,8 @@ public final class MapiSocket {
 		private int readPos = 0;
 		private int blockLen = 0;
 		private byte[] block = new byte[BLOCK + 3]; // \n.\n
+		/** The position of the inserted prompt in the block, or -1 */
+		private int promptPos = -1;
 
 		/**
 		 * Constructs this BlockInputStream, backed by the given
@@ -936,12 +1027,14 @@ public final class MapiSocket {
 
 			// if this is the last block, make it end with a newline and
 			// prompt
+			promptPos = -1;
 			if ((blklen[0] & 0x1) == 1) {
 				if (blockLen > 0 && block[blockLen - 1] != '\n') {
 					// to terminate the block in a Reader
 					block[blockLen++] = '\n';
 				}
 				// insert 'fake' flush
+				promptPos = blockLen;
 				block[blockLen++] = BufferedMCLReader.PROMPT;
 				block[blockLen++] = '\n';
 				if (debug)
@@ -968,6 +1061,28 @@ public final class MapiSocket {
 			return read(b, 0, b.length);
 		}
 
+		/**
+		 * Reads the bytes of the current message, up to the inserted
+		 * prompt which ends it.  The prompt is skipped, after which
+		 * -1 is returned.
+		 *
+		 * @see MapiSocket#readResponse(byte[], int, int)
+		 */
+		int readResponse(byte[] b, int off, int len) throws IOException {
+			if (available() == 0 && readBlock() == -1)
+				return -1;
+			int end = promptPos >= 0 ? promptPos : blockLen;
+			if (readPos >= end) {
+				// only the prompt is left, the message has ended
+				readPos = blockLen;
+				return -1;
+			}
+			int size = Math.min(len, end - readPos);
+			System.arraycopy(block, readPos, b, off, size);
+			readPos += size;
+			return size;
+		}
+
 		@Override
 		public int read(byte[] b, int off, int len) throws IOException {
 			int t;
@@ -1020,45 +1135,65 @@ public final class MapiSocket {
 	}
 
 	/**
-	 * Closes the streams and socket connected to the server if
-	 * possible.  If an error occurs during disconnecting it is ignored.
+	 * Closes the socket connected to the server, without waiting for
+	 * the thread which may be reading from or writing to it.  That
+	 * thread gets an IOException.  The streams are released by
+	 * close(), which still needs to be called.
 	 */
-	public synchronized void close() {
-		if (writer != null) {
+	public void abort() {
+		Socket s = con;
+		if (s != null) {
 			try {
-				writer.close();
-				writer = null;
+				s.close();
 			} catch (IOException e) { /* ignore it */ }
 		}
-		if (reader != null) {
-			try {
-				reader.close();
-				reader = null;
-			} catch (IOException e) { /* ignore it */ }
-		}
-		if (toMonet != null) {
-			try {
-				toMonet.close();
-				toMonet = null;
-			} catch (IOException e) { /* ignore it */ }
-		}
-		if (fromMonet != null) {
-			try {
-				fromMonet.close();
-				fromMonet = null;
-			} catch (IOException e) { /* ignore it */ }
-		}
-		if (con != null) {
-			try {
-				con.close();
-				con = null;
-			} catch (IOException e) { /* ignore it */ }
-		}
-		if (debug && log != null && log instanceof FileWriter) {
-			try {
-				log.close();
-				log = null;
-			} catch (IOException e) { /* ignore it */ }
+	}
+
+	/**
+	 * Closes the streams and socket connected to the server if
+	 * possible.  If an error occurs during disconnecting it is ignored.
+	 */
+	public void close() {
+		closeLock.lock();
+		try {
+			if (writer != null) {
+				try {
+					writer.close();
+					writer = null;
+				} catch (IOException e) { /* ignore it */ }
+			}
+			if (reader != null) {
+				try {
+					reader.close();
+					reader = null;
+				} catch (IOException e) { /* ignore it */ }
+			}
+			if (toMonet != null) {
+				try {
+					toMonet.close();
+					toMonet = null;
+				} catch (IOException e) { /* ignore it */ }
+			}
+			if (fromMonet != null) {
+				try {
+					fromMonet.close();
+					fromMonet = null;
+				} catch (IOException e) { /* ignore it */ }
+			}
+			if (con != null) {
+				try {
+					con.close();
+					con = null;
+				} catch (IOException e) { /* ignore it */ }
+			}
+			if (debug && log != null && log instanceof FileWriter) {
+				try {
+					log.close();
+					log = null;
+				} catch (IOException e) { /* ignore it */ }
+			}
+		} finally {
+			closeLock.unlock();
 		}
 	}
 
@@ -13,9 +13,36 @@ package nl.cwi.monetdb.mcl.parser;
  * number of values that are expected are known upfront to speed up
  * allocation and validation.
  *
+ * For columns with few distinct values a dictionary can be enabled
+ * using enableDictionary().  Values of such columns are looked up in
+ * the dictionary directly from the parsed characters, such that a
+ * value which repeats over many rows is represented by a single String
+ * object.  The dictionary disables itself when sampling shows that the
+ * column does not repeat its values often enough.  Note that this only
+ * concerns the Strings handed out by the parser; the lines it parses
+ * are kept by their caller as they are.
+ *
+ * Columns can also be marked raw using setRaw().  For those no String
+ * is created at all; instead the position of the value in the line
+ * buffer is recorded, such that callers can decode e.g. numbers
+ * straight from the characters.
+ *
  * @author Fabian Groffen
  */
 public class TupleLineParser extends MCLParser {
+	/** the characters of the line being parsed, reused between lines */
+	private char[] lineBuf = new char[256];
+	/** buffer for unescaping string values, reused between values */
+	private char[] ubuf = new char[256];
+	/** per column dictionaries, null for columns without one */
+	private StringDictionary[] dicts;
+	/** columns for which no String is created, null if there are none */
+	private boolean[] raw;
+	/** offset of the raw column values in the line buffer */
+	private int[] rawOffset;
+	/** length of the raw column values, -1 for NULL */
+	private int[] rawLength;
+
 	/**
 	 * Constructs a TupleLineParser which expects columncount columns.
 	 *
@@ -25,6 +52,84 @@ public class TupleLineParser extends MCLParser {
 		super(columncount);
 	}
 
+	/**
+	 * Enables deduplication of the values of the given column using a
+	 * dictionary of previously seen values.  This is only beneficial
+	 * for (string) columns with a low number of distinct values.
+	 *
+	 * @param column the column number, the first column is 0
+	 */
+	public void enableDictionary(int column) {
+		if (dicts == null)
+			dicts = new StringDictionary[values.length];
+		dicts[column] = new StringDictionary();
+	}
+
+	/**
+	 * Marks the given column as raw.  For raw columns parse() leaves
+	 * the value in the values array null and only records the offset
+	 * and length of the (unquoted) value in the line buffer, see
+	 * getLineBuffer(), getRawOffset() and getRawLength().
+	 *
+	 * @param column the column number, the first column is 0
+	 */
+	public void setRaw(int column) {
+		if (raw == null) {
+			raw = new boolean[values.length];
+			rawOffset = new int[values.length];
+			rawLength = new int[values.length];
+		}
+		raw[column] = true;
+	}
+
+	/**
+	 * Returns the buffer holding the characters of the last parsed
+	 * line.  The buffer is reused for the next line.
+	 *
+	 * @return the line buffer
+	 */
+	public char[] getLineBuffer() {
+		return lineBuf;
+	}
+
+	/**
+	 * Returns the offset in the line buffer of the value of the given
+	 * raw column in the last parsed line.
+	 *
+	 * @param column the column number, the first column is 0
+	 * @return the offset of the value
+	 */
+	public int getRawOffset(int column) {
+		return rawOffset[column];
+	}
+
+	/**
+	 * Returns the length of the value of the given raw column in the
+	 * last parsed line, or -1 if the value is NULL.  For values which
+	 * were sent quoted the String is available in the values array and
+	 * this method returns -2.
+	 *
+	 * @param column the column number, the first column is 0
+	 * @return the length of the value, -1 for NULL, -2 if not raw
+	 */
+	public int getRawLength(int column) {
+		return rawLength[column];
+	}
+
+	/* creates the String for the given characters of the given column */
+	private String newValue(int column, char[] buf, int off, int len) {
+		if (dicts != null) {
+			StringDictionary dict = dicts[column];
+			if (dict != null) {
+				String val = dict.get(buf, off, len);
+				if (dict.isIneffective())
+					dicts[column] = null;
+				return val;
+			}
+		}
+		return new String(buf, off, len);
+	}
+
 	/**
 	 * Parses the given String source as tuple line.  If source cannot
 	 * be parsed, a ParseException is thrown.  The columncount argument
@@ -38,8 +143,10 @@ public class TupleLineParser extends MCLParser {
 	 */
 	@Override
 	public int parse(String source) throws MCLParseException {
-		int len = source.length();
-		char[] chrLine = new char[len];
+		final int len = source.length();
+		if (lineBuf.length < len)
+			lineBuf = new char[Math.max(len, lineBuf.length * 2)];
+		final char[] chrLine = lineBuf;
 		source.getChars(0, len, chrLine, 0);
 
 		// first detect whether this is a single value line (=) or a
@@ -50,7 +157,13 @@ public class TupleLineParser extends MCLParser {
 						" columns expected, but only single value found");
 
 			// return the whole string but without the leading =
-			values[0] = source.substring(1);
+			if (raw != null && raw[0]) {
+				values[0] = null;
+				rawOffset[0] = 1;
+				rawLength[0] = (len == 5 && source.startsWith("NULL", 1)) ? -1 : len - 1;
+			} else {
+				values[0] = source.substring(1);
+			}
 
 			// reset colnr
 			reset();
@@ -61,7 +174,6 @@ public class TupleLineParser extends MCLParser {
 		// extract separate fields by examining string, char for char
 		boolean inString = false, escaped = false;
 		int cursor = 2, column = 0;
-		StringBuilder uesc = new StringBuilder();
 		for (int i = 2; i < len; i++) {
 			switch(chrLine[i]) {
 				default:
@@ -102,10 +214,12 @@ public class TupleLineParser extends MCLParser {
 						if (chrLine[cursor] == '"' &&
 							chrLine[i - 2] == '"')
 						{
-							// reuse the StringBuilder by cleaning it
-							uesc.delete(0, uesc.length());
-							// prevent capacity increasements
-							uesc.ensureCapacity((i - 2) - (cursor + 1));
+							// reuse the unescape buffer, unescaping never makes
+							// the value longer
+							if (ubuf.length < (i - 2) - (cursor + 1))
+								ubuf = new char[(i - 2) - (cursor + 1)];
+							final char[] uesc = ubuf;
+							int ulen = 0;
 							for (int pos = cursor + 1; pos < i - 2; pos++) {
 								if (chrLine[pos] == '\\' && pos + 1 < i - 2) {
 									pos++;
@@ -113,22 +227,22 @@ public class TupleLineParser extends MCLParser {
 									// support \\ \f \n \r \t \" and \377
 									switch (chrLine[pos]) {
 										case '\\':
-											uesc.append('\\');
+											uesc[ulen++] = '\\';
 											break;
 										case 'f':
-											uesc.append('\f');
+											uesc[ulen++] = '\f';
 											break;
 										case 'n':
-											uesc.append('\n');
+											uesc[ulen++] = '\n';
 											break;
 										case 'r':
-											uesc.append('\r');
+											uesc[ulen++] = '\r';
 											break;
 										case 't':
-											uesc.append('\t');
+											uesc[ulen++] = '\t';
 											break;
 										case '"':
-											uesc.append('"');
+											uesc[ulen++] = '"';
 											break;
 										case '0': case '1': case '2': case '3':
 											// this could be an octal number, let's check it out
@@ -138,7 +252,7 @@ public class TupleLineParser extends MCLParser {
 											) {
 												// we got an octal number
 												try {
-													uesc.append((char)(Integer.parseInt("" + chrLine[pos] + chrLine[pos + 1] + chrLine[pos + 2], 8)));
+													uesc[ulen++] = (char)(Integer.parseInt("" + chrLine[pos] + chrLine[pos + 1] + chrLine[pos + 2], 8));
 													pos += 2;
 												} catch (NumberFormatException e) {
 													// hmmm, this point should never be reached actually...
@@ -146,25 +260,36 @@ public class TupleLineParser extends MCLParser {
 												}
 											} else {
 												// do default action if number seems not to be correct
-												uesc.append(chrLine[pos]);
+												uesc[ulen++] = chrLine[pos];
 											}
 											break;
 										default:
 											// this is wrong usage of escape, just ignore the \-escape and print the char
-											uesc.append(chrLine[pos]);
+											uesc[ulen++] = chrLine[pos];
 											break;
 									}
 								} else {
-									uesc.append(chrLine[pos]);
+									uesc[ulen++] = chrLine[pos];
 								}
 							}
 
 							// put the unescaped string in the right place
-							values[column++] = uesc.toString();
-						} else if ((i - 1) - cursor == 4 && source.indexOf("NULL", cursor) == cursor) {
+							values[column] = newValue(column, uesc, 0, ulen);
+							if (raw != null)
+								rawLength[column] = -2;
+							column++;
+						} else if ((i - 1) - cursor == 4 && source.startsWith("NULL", cursor)) {
+							if (raw != null)
+								rawLength[column] = -1;
 							values[column++] = null;
+						} else if (raw != null && raw[column]) {
+							values[column] = null;
+							rawOffset[column] = cursor;
+							rawLength[column] = (i - 1) - cursor;
+							column++;
 						} else {
-							values[column++] = source.substring(cursor, i - 1);
+							values[column] = newValue(column, chrLine, cursor, (i - 1) - cursor);
+							column++;
 						}
 						cursor = i + 1;
 					}
@@ -183,4 +308,70 @@ public class TupleLineParser extends MCLParser {
 
 		return 0;
 	}
+
+	/**
+	 * A small open addressing hash table of Strings, which can be
+	 * queried with a range of characters, such that no String needs
+	 * to be created for values already present.  The table has a fixed
+	 * size; once full, new values are no longer added.
+	 */
+	private static final class StringDictionary {
+		/** the number of slots, must be a power of 2 */
+		private static final int SIZE = 1024;
+		/** values longer than this are not looked up nor stored */
+		private static final int MAX_LEN = 64;
+		/** the number of lookups after which the hit ratio is evaluated */
+		private static final int SAMPLE = 1000;
+
+		private final String[] strs = new String[SIZE];
+		private final int[] hashes = new int[SIZE];
+		private int count;
+		private int lookups;
+		private int misses;
+
+		String get(char[] buf, int off, int len) {
+			if (len > MAX_LEN) {
+				lookups++;
+				misses++;
+				return new String(buf, off, len);
+			}
+			int h = 0;
+			for (int i = off; i < off + len; i++)
+				h = 31 * h + buf[i];
+			lookups++;
+			int idx = (h ^ (h >>> 16)) & (SIZE - 1);
+			String s;
+			while ((s = strs[idx]) != null) {
+				if (hashes[idx] == h && s.length() == len && matches(s, buf, off, len))
+					return s;
+				idx = (idx + 1) & (SIZE - 1);
+			}
+			misses++;
+			s = new String(buf, off, len);
+			// keep the load factor below 0.75
+			if (count < (SIZE / 4) * 3) {
+				strs[idx] = s;
+				hashes[idx] = h;
+				count++;
+			}
+			return s;
+		}
+
+		/**
+		 * Returns whether this dictionary does not pay off, which is the
+		 * case when after the sample period more than half of the
+		 * lookups were misses.
+		 */
+		boolean isIneffective() {
+			return lookups == SAMPLE && misses * 2 > SAMPLE;
+		}
+
+		private static boolean matches(String s, char[] buf, int off, int len) {
+			for (int i = 0; i < len; i++) {
+				if (s.charAt(i) != buf[off + i])
+					return false;
+			}
+			return true;
+		}
+	}
 }
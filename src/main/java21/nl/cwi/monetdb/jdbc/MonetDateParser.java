@@ -0,0 +1,152 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+package nl.cwi.monetdb.jdbc;
+
+import java.sql.Types;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * A fast path for parsing the DATE, TIME and TIMESTAMP values sent by
+ * the server, which MonetResultSet tries before its SimpleDateFormat
+ * parsers.
+ *
+ * This is the implementation for Java 21 and up, packed in
+ * META-INF/versions/21 of the multi-release JAR.  It parses values of
+ * the exact forms yyyy-MM-dd, HH:mm:ss and yyyy-MM-dd HH:mm:ss with
+ * java.time, without the Calendar arithmetic and allocations of
+ * SimpleDateFormat.  Anything else is left to the SimpleDateFormat
+ * parsers, such that the results are the same: years before 1900
+ * (java.util.TimeZone has no history before 1900, and
+ * GregorianCalendar uses the Julian calendar before 1583), out of range
+ * fields (which SimpleDateFormat leniently rolls over), and time zones
+ * without an equivalent ZoneId.
+ */
+final class MonetDateParser {
+	/** The time zone parsed in last, and its ZoneId, null if it has none */
+	private TimeZone lastTz;
+	private ZoneId lastZone;
+
+	/**
+	 * Parses the date, time or timestamp at the start of the given
+	 * value in the given time zone.  On success the Calendar is set to
+	 * the parsed instant and the index of the ParsePosition to the
+	 * first character after the parsed part.  Otherwise nothing is
+	 * changed, and the caller must parse the value itself.
+	 *
+	 * @param value the value as sent by the server
+	 * @param type the java.sql.Types type to parse the value as
+	 * @param tz the time zone to interpret the value in
+	 * @param cal the Calendar to set to the parsed instant
+	 * @param pos the ParsePosition to set to the end of the parsed part
+	 * @return whether the value was parsed
+	 */
+	boolean parse(String value, int type, TimeZone tz, Calendar cal, ParsePosition pos) {
+		final int end = switch (type) {
+			case Types.DATE -> isDate(value, 0) ? 10 : -1;
+			case Types.TIME -> isTime(value, 0) ? 8 : -1;
+			case Types.TIMESTAMP -> isDate(value, 0) && value.length() > 10
+				&& value.charAt(10) == ' ' && isTime(value, 11) ? 19 : -1;
+			default -> -1;
+		};
+		// SimpleDateFormat takes all digits of the last field
+		if (end == -1 || (end < value.length() && isDigit(value.charAt(end))))
+			return false;
+
+		final ZoneId zone = zoneOf(tz);
+		if (zone == null)
+			return false;
+
+		final int time = type == Types.TIMESTAMP ? 11 : 0;
+		final LocalDateTime ldt;
+		try {
+			if (type == Types.TIME) {
+				ldt = LocalDateTime.of(1970, 1, 1,
+						number(value, time, 2),
+						number(value, time + 3, 2),
+						number(value, time + 6, 2));
+			} else {
+				int year = number(value, 0, 4);
+				if (year < 1900)
+					return false;
+				ldt = type == Types.DATE
+					? LocalDateTime.of(year, number(value, 5, 2), number(value, 8, 2), 0, 0)
+					: LocalDateTime.of(year, number(value, 5, 2), number(value, 8, 2),
+						number(value, time, 2),
+						number(value, time + 3, 2),
+						number(value, time + 6, 2));
+			}
+		} catch (DateTimeException e) {
+			return false;
+		}
+
+		// like GregorianCalendar, take standard time for a local time
+		// which occurs twice when the clock is set back
+		cal.setTimeInMillis(ldt.atZone(zone).withLaterOffsetAtOverlap().toInstant().toEpochMilli());
+		pos.setIndex(end);
+		return true;
+	}
+
+	/* returns the ZoneId with the same rules as tz, or null */
+	private ZoneId zoneOf(TimeZone tz) {
+		if (tz != lastTz) {
+			ZoneId zone;
+			try {
+				zone = tz.toZoneId();
+				if (!tz.hasSameRules(TimeZone.getTimeZone(zone)))
+					zone = null;
+			} catch (DateTimeException e) {
+				zone = null;
+			}
+			lastTz = tz;
+			lastZone = zone;
+		}
+		return lastZone;
+	}
+
+	/* whether value has the form yyyy-MM-dd at off */
+	private static boolean isDate(String value, int off) {
+		return value.length() >= off + 10
+			&& isDigits(value, off, 4) && value.charAt(off + 4) == '-'
+			&& isDigits(value, off + 5, 2) && value.charAt(off + 7) == '-'
+			&& isDigits(value, off + 8, 2);
+	}
+
+	/* whether value has the form HH:mm:ss at off */
+	private static boolean isTime(String value, int off) {
+		return value.length() >= off + 8
+			&& isDigits(value, off, 2) && value.charAt(off + 2) == ':'
+			&& isDigits(value, off + 3, 2) && value.charAt(off + 5) == ':'
+			&& isDigits(value, off + 6, 2);
+	}
+
+	private static boolean isDigits(String value, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			if (!isDigit(value.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/* the number of the len digits at off, which isDigits() checked */
+	private static int number(String value, int off, int len) {
+		int n = 0;
+		for (int i = off; i < off + len; i++)
+			n = n * 10 + (value.charAt(i) - '0');
+		return n;
+	}
+}
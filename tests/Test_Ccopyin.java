@@ -0,0 +1,57 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+import java.io.*;
+import java.sql.*;
+import nl.cwi.monetdb.jdbc.MonetConnection;
+
+public class Test_Ccopyin {
+	public static void main(String[] args) throws Exception {
+		// Class.forName("nl.cwi.monetdb.jdbc.MonetDriver");	// not needed anymore for self registering JDBC drivers
+		Connection con = DriverManager.getConnection(args[0]);
+		MonetConnection mcon = con.unwrap(MonetConnection.class);
+		Statement stmt = con.createStatement();
+		ResultSet rs = null;
+
+		con.setAutoCommit(false);
+		try {
+			stmt.executeUpdate("CREATE TABLE table_Test_Ccopyin ( id int, val varchar(24) )");
+
+			// >> 1000: the rows are streamed from a Reader
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 1000; i++)
+				sb.append(i).append(",val_").append(i).append('\n');
+			long count = mcon.copyIn("COPY INTO table_Test_Ccopyin FROM STDIN USING DELIMITERS ',','\\n'", new StringReader(sb.toString()));
+			System.out.println("1. 1000\t" + count);
+
+			// >> 2: the last record does not need a newline
+			count = mcon.copyIn("COPY INTO table_Test_Ccopyin FROM STDIN USING DELIMITERS ',','\\n'", new ByteArrayInputStream("1000,a\n1001,b".getBytes("UTF-8")));
+			System.out.println("2. 2\t" + count);
+
+			rs = stmt.executeQuery("SELECT COUNT(*), MAX(id) FROM table_Test_Ccopyin");
+			rs.next();
+			System.out.println("3. 1002, 1001\t" + rs.getInt(1) + ", " + rs.getInt(2));
+			rs.close();
+
+			try {
+				mcon.copyIn("COPY INTO table_Test_Ccopyin_missing FROM STDIN", new StringReader("1,a\n"));
+				System.out.println("4. failed, a missing table should throw");
+			} catch (SQLException e) {
+				System.out.println("4. ok\t" + e.getMessage());
+			}
+		} catch (SQLException e) {
+			System.out.println("failed :( "+ e.getMessage());
+			System.out.println("ABORTING TEST!!!");
+		}
+
+		if (rs != null)
+			rs.close();
+		con.rollback();
+		con.close();
+	}
+}
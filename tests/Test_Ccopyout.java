@@ -0,0 +1,56 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+import java.io.*;
+import java.sql.*;
+import nl.cwi.monetdb.jdbc.MonetConnection;
+
+public class Test_Ccopyout {
+	public static void main(String[] args) throws Exception {
+		// Class.forName("nl.cwi.monetdb.jdbc.MonetDriver");	// not needed anymore for self registering JDBC drivers
+		Connection con = DriverManager.getConnection(args[0]);
+		MonetConnection mcon = con.unwrap(MonetConnection.class);
+		Statement stmt = con.createStatement();
+
+		con.setAutoCommit(false);
+		try {
+			stmt.executeUpdate("CREATE TABLE table_Test_Ccopyout ( id int, val varchar(24) )");
+			stmt.executeUpdate("INSERT INTO table_Test_Ccopyout VALUES (1, 'one'), (2, 'two'), (3, NULL)");
+
+			// >> the rows, in the delimited format of the query
+			StringWriter sw = new StringWriter();
+			long count = mcon.copyOut("COPY SELECT * FROM table_Test_Ccopyout ORDER BY id INTO STDOUT USING DELIMITERS ',','\\n','\"' NULL AS ''", sw);
+			System.out.println("1. 3\t" + count);
+			System.out.print(sw.toString());
+
+			// >> the same rows, as bytes
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			mcon.copyOut("COPY SELECT * FROM table_Test_Ccopyout ORDER BY id INTO STDOUT USING DELIMITERS ',','\\n','\"' NULL AS ''", bos);
+			System.out.println("2. true\t" + sw.toString().equals(bos.toString("UTF-8")));
+
+			try {
+				mcon.copyOut("COPY SELECT * FROM table_Test_Ccopyout_missing INTO STDOUT", bos);
+				System.out.println("3. failed, a missing table should throw");
+			} catch (SQLException e) {
+				System.out.println("3. ok\t" + e.getMessage());
+			}
+
+			// >> 1: the connection is still usable
+			ResultSet rs = stmt.executeQuery("SELECT 1");
+			rs.next();
+			System.out.println("4. 1\t" + rs.getInt(1));
+			rs.close();
+		} catch (SQLException e) {
+			System.out.println("failed :( "+ e.getMessage());
+			System.out.println("ABORTING TEST!!!");
+		}
+
+		con.rollback();
+		con.close();
+	}
+}
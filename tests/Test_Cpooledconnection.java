@@ -0,0 +1,76 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+import java.sql.*;
+import javax.sql.*;
+import nl.cwi.monetdb.jdbc.MonetConnectionPoolDataSource;
+
+public class Test_Cpooledconnection {
+	public static void main(String[] args) throws Exception {
+		MonetConnectionPoolDataSource ds = new MonetConnectionPoolDataSource();
+		ds.setDatabaseName(args[0]);	// the URL, including user and password
+		PooledConnection pc = ds.getPooledConnection();
+
+		final StringBuilder events = new StringBuilder();
+		pc.addConnectionEventListener(new ConnectionEventListener() {
+			public void connectionClosed(ConnectionEvent event) {
+				events.append(" closed");
+			}
+			public void connectionErrorOccurred(ConnectionEvent event) {
+				events.append(" error");
+			}
+		});
+		pc.addStatementEventListener(new StatementEventListener() {
+			public void statementClosed(StatementEvent event) {
+				events.append(" stmtclosed");
+			}
+			public void statementErrorOccurred(StatementEvent event) {
+				events.append(" stmterror");
+			}
+		});
+
+		try {
+			// >> the logical connection, and its statements
+			Connection con = pc.getConnection();
+			PreparedStatement pstmt = con.prepareStatement("SELECT ?");
+			pstmt.setInt(1, 42);
+			ResultSet rs = pstmt.executeQuery();
+			rs.next();
+			System.out.println("1. 42 true\t" + rs.getInt(1) + " " + (pstmt.getConnection() == con));
+			pstmt.close();
+			Statement stmt = con.createStatement();
+			con.close();
+			System.out.println("2. true true\t" + con.isClosed() + " " + stmt.isClosed());
+			System.out.println("3.  stmtclosed closed\t" + events);
+
+			// >> the next logical connection on the same physical one
+			events.setLength(0);
+			con = pc.getConnection();
+			pstmt = con.prepareStatement("SELECT ?");
+			pstmt.setInt(1, 43);
+			rs = pstmt.executeQuery();
+			rs.next();
+			System.out.println("4. 43\t" + rs.getInt(1));
+			Connection con2 = pc.getConnection();
+			System.out.println("5. true\t" + con.isClosed());
+			con2.close();
+			System.out.println("6.  closed\t" + events);
+		} catch (SQLException e) {
+			System.out.println("failed :( "+ e.getMessage());
+			System.out.println("ABORTING TEST!!!");
+		}
+
+		pc.close();
+		try {
+			pc.getConnection();
+			System.out.println("7. failed, a closed PooledConnection should throw");
+		} catch (SQLException e) {
+			System.out.println("7. ok\t" + e.getMessage());
+		}
+	}
+}
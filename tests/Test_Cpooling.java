@@ -0,0 +1,75 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+import java.sql.*;
+import nl.cwi.monetdb.jdbc.MonetConnection;
+import nl.cwi.monetdb.jdbc.MonetPoolingDataSource;
+
+public class Test_Cpooling {
+	public static void main(String[] args) throws Exception {
+		MonetPoolingDataSource ds = new MonetPoolingDataSource();
+		ds.setDatabaseName(args[0]);	// the URL, including user and password
+		ds.setMaxPoolSize(2);
+		ds.setLoginTimeout(2);
+
+		try {
+			// >> the same MonetConnection is handed out again
+			Connection con1 = ds.getConnection();
+			MonetConnection mcon1 = con1.unwrap(MonetConnection.class);
+			con1.setAutoCommit(false);
+			Statement stmt = con1.createStatement();
+			stmt.executeQuery("SELECT 1");
+			con1.close();
+			System.out.println("1. true true\t" + con1.isClosed() + " " + stmt.isClosed());
+
+			Connection con2 = ds.getConnection();
+			System.out.println("2. true true\t" + (con2.unwrap(MonetConnection.class) == mcon1) + " " + con2.getAutoCommit());
+
+			try {
+				con1.createStatement();
+				System.out.println("3. failed, a closed handle should throw");
+			} catch (SQLException e) {
+				System.out.println("3. ok\t" + e.getMessage());
+			}
+
+			// >> the pool is exhausted after its maximum size
+			Connection con3 = ds.getConnection();
+			System.out.println("4. 2 0\t" + ds.getTotalConnections() + " " + ds.getIdleConnections());
+			try {
+				ds.getConnection();
+				System.out.println("5. failed, an exhausted pool should time out");
+			} catch (SQLException e) {
+				System.out.println("5. ok\t" + e.getMessage());
+			}
+			con3.close();
+			con2.close();
+			System.out.println("6. 2 2\t" + ds.getTotalConnections() + " " + ds.getIdleConnections());
+
+			// >> closing the physical connection returns the permit
+			Connection con4 = ds.getConnection();
+			con4.unwrap(MonetConnection.class).close();
+			System.out.println("7. true 1 1\t" + con4.isClosed() + " " + ds.getTotalConnections() + " " + ds.getIdleConnections());
+			con4.close();
+			con4 = ds.getConnection();
+			Connection con5 = ds.getConnection();
+			con5.close();
+			con4.close();
+			System.out.println("8. 2 2\t" + ds.getTotalConnections() + " " + ds.getIdleConnections());
+
+			ResultSet rs = ds.getConnection().createStatement().executeQuery("SELECT 1");
+			rs.next();
+			System.out.println("9. 1\t" + rs.getInt(1));
+		} catch (SQLException e) {
+			System.out.println("failed :( "+ e.getMessage());
+			System.out.println("ABORTING TEST!!!");
+		}
+
+		ds.close();
+		System.out.println("10. 1 0\t" + ds.getTotalConnections() + " " + ds.getIdleConnections());
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+
+/* Batches of single-row INSERTs are executed as COPY INTO, see
+ * MonetPreparedStatement.addBatch() */
+public class Test_PSbatchcopy {
+	public static void main(String[] args) throws Exception {
+		Connection con = DriverManager.getConnection(args[0]);
+		Statement stmt = con.createStatement();
+		PreparedStatement pstmt;
+
+		// the strings which need escaping in a COPY INTO record; "null"
+		// equals the NULL marker, so that row and the ones after it are
+		// executed as separate statements
+		String[] strs = {
+			"plain", "double \" quote", "back \\ slash", "single ' quote",
+			"pipe | bar", "new\nline", "cr\r\nlf", "\\N", null, "null", "after \\\" all"
+		};
+		Timestamp ts = Timestamp.valueOf("2017-03-04 05:06:07.5");
+		BigDecimal dec = new BigDecimal("12.34");
+
+		try {
+			stmt.execute("CREATE TABLE batchcopy (seq SERIAL, id INT, s VARCHAR(100), ts TIMESTAMP, d DECIMAL(10,2), b BOOLEAN)");
+			pstmt = con.prepareStatement("INSERT INTO batchcopy (id, s, ts, d, b) VALUES (?, ?, ?, ?, ?)");
+			for (int i = 0; i < strs.length; i++) {
+				pstmt.setInt(1, i);
+				pstmt.setString(2, strs[i]);
+				pstmt.setTimestamp(3, ts);
+				pstmt.setBigDecimal(4, dec);
+				pstmt.setBoolean(5, i % 2 == 0);
+				pstmt.addBatch();
+			}
+			int[] counts = pstmt.executeBatch();
+			// >> every row is inserted once
+			System.out.println("1. " + strs.length + "\t" + counts.length);
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] != 1)
+					System.out.println("1. row " + i + ": 1\t" + counts[i]);
+			}
+
+			// >> the rows are inserted in the order of the batch, with
+			// their values unchanged
+			ResultSet rs = stmt.executeQuery("SELECT id, s, ts, d, b FROM batchcopy ORDER BY seq");
+			int row = 0;
+			while (rs.next()) {
+				boolean same = rs.getInt(1) == row &&
+					Objects.equals(rs.getString(2), strs[row]) &&
+					ts.equals(rs.getTimestamp(3)) &&
+					dec.equals(rs.getBigDecimal(4)) &&
+					rs.getBoolean(5) == (row % 2 == 0);
+				System.out.println("2. " + row + " true\t" + same);
+				row++;
+			}
+			rs.close();
+			System.out.println("3. " + strs.length + "\t" + row);
+
+			stmt.execute("CREATE TABLE batchcopyfail (id INT PRIMARY KEY)");
+			stmt.execute("INSERT INTO batchcopyfail VALUES (3)");
+			pstmt = con.prepareStatement("INSERT INTO batchcopyfail VALUES (?)");
+			for (int i = 1; i <= 4; i++) {
+				pstmt.setInt(1, i);
+				pstmt.addBatch();
+			}
+			try {
+				pstmt.executeBatch();
+				System.out.println("4. failed, the duplicate key should fail the batch");
+			} catch (BatchUpdateException e) {
+				// >> a failing COPY INTO inserts none of its rows
+				System.out.println("4. [-3, -3, -3, -3]\t" + Arrays.toString(e.getUpdateCounts()));
+				System.out.println("5. true\t" + (e.getNextException() != null));
+			}
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM batchcopyfail");
+			rs.next();
+			System.out.println("6. 1\t" + rs.getInt(1));
+			rs.close();
+
+			// >> after the failure the batch is empty, and the statement
+			// can be used again
+			pstmt.setInt(1, 5);
+			pstmt.addBatch();
+			System.out.println("7. [1]\t" + Arrays.toString(pstmt.executeBatch()));
+			pstmt.close();
+
+			// >> with a small batch_flush_size every record is sent as
+			// a COPY INTO of its own, so only the failing one fails
+			String url = args[0] + (args[0].indexOf('?') >= 0 ? "&" : "?") + "batch_flush_size=1";
+			Connection con2 = DriverManager.getConnection(url);
+			pstmt = con2.prepareStatement("INSERT INTO batchcopyfail VALUES (?)");
+			for (int i = 10; i <= 13; i++) {
+				pstmt.setInt(1, i == 12 ? 3 : i);
+				pstmt.addBatch();
+			}
+			try {
+				pstmt.executeBatch();
+				System.out.println("8. failed, the duplicate key should fail the batch");
+			} catch (BatchUpdateException e) {
+				System.out.println("8. [1, 1, -3, 1]\t" + Arrays.toString(e.getUpdateCounts()));
+			}
+			pstmt.close();
+			con2.close();
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM batchcopyfail");
+			rs.next();
+			System.out.println("9. 5\t" + rs.getInt(1));
+			rs.close();
+
+			stmt.execute("DROP TABLE batchcopy");
+			stmt.execute("DROP TABLE batchcopyfail");
+			stmt.close();
+		} catch (SQLException e) {
+			System.out.println("FAILED :( "+ e.getMessage());
+			while ((e = e.getNextException()) != null)
+				System.out.println("FAILED :( " + e.getMessage());
+			System.out.println("ABORTING TEST!!!");
+		}
+
+		con.close();
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+import java.sql.*;
+import nl.cwi.monetdb.jdbc.MonetColumnBatch;
+import nl.cwi.monetdb.jdbc.MonetResultSet;
+
+public class Test_Rfetchcolumns {
+	public static void main(String[] args) throws Exception {
+		// Class.forName("nl.cwi.monetdb.jdbc.MonetDriver");	// not needed anymore for self registering JDBC drivers
+		Connection con = DriverManager.getConnection(args[0]);
+		Statement stmt = con.createStatement();
+		ResultSet rs = null;
+
+		con.setAutoCommit(false);
+		try {
+			stmt.executeUpdate("CREATE TABLE table_Test_Rfetchcolumns ( id int, big_int bigint, a_double double, a_decimal decimal(8,2), bool boolean, a_varchar varchar(20) )");
+			stmt.executeUpdate("INSERT INTO table_Test_Rfetchcolumns VALUES (1, 10000000000, 1.5, 12.34, true, 'one')");
+			stmt.executeUpdate("INSERT INTO table_Test_Rfetchcolumns VALUES (2, -2, -0.25, -1.00, false, 'two')");
+			stmt.executeUpdate("INSERT INTO table_Test_Rfetchcolumns VALUES (3, NULL, NULL, NULL, NULL, NULL)");
+
+			rs = stmt.executeQuery("SELECT * FROM table_Test_Rfetchcolumns ORDER BY id ASC");
+			MonetResultSet mrs = rs.unwrap(MonetResultSet.class);
+
+			// >> 2: the first batch holds two rows
+			MonetColumnBatch batch = mrs.fetchColumns(2);
+			System.out.println("1. 2\t" + batch.getRowCount());
+			for (int i = 0; i < batch.getRowCount(); i++) {
+				System.out.println("   " + batch.getInts(1)[i] + ", " + batch.getLongs(2)[i] + ", " + batch.getDoubles(3)[i] + ", " + batch.getDoubles(4)[i] + ", " + batch.getBooleans(5)[i] + ", " + batch.getStrings(6)[i]);
+			}
+			// >> 2: the cursor is on the last row of the batch
+			System.out.println("2. 2\t" + rs.getRow() + ", " + rs.getInt(1));
+
+			// >> 1: the second batch holds the last row, with NULLs
+			batch = mrs.fetchColumns(2, batch);
+			System.out.println("3. 1\t" + batch.getRowCount());
+			System.out.println("   " + batch.getInts(1)[0] + ", " + batch.isNull(2, 0) + ", " + batch.isNull(3, 0) + ", " + batch.isNull(4, 0) + ", " + batch.isNull(5, 0) + ", " + batch.getStrings(6)[0]);
+
+			// >> 0: the end is reached
+			batch = mrs.fetchColumns(2, batch);
+			System.out.println("4. 0\t" + batch.getRowCount());
+			System.out.println("5. true\t" + rs.isAfterLast());
+
+			try {
+				batch.getLongs(1);
+				System.out.println("6. failed, getLongs() on an int column should throw");
+			} catch (SQLException e) {
+				System.out.println("6. ok\t" + e.getMessage());
+			}
+		} catch (SQLException e) {
+			System.out.println("failed :( "+ e.getMessage());
+			System.out.println("ABORTING TEST!!!");
+		}
+
+		if (rs != null)
+			rs.close();
+		con.rollback();
+		con.close();
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+import java.sql.*;
+import java.util.concurrent.atomic.AtomicLong;
+import nl.cwi.monetdb.jdbc.MonetParallelScan;
+import nl.cwi.monetdb.jdbc.MonetPoolingDataSource;
+
+public class Test_Rparallelscan {
+	public static void main(String[] args) throws Exception {
+		// the slices read the table on their own connections, so it is committed
+		Connection con = DriverManager.getConnection(args[0]);
+		Statement stmt = con.createStatement();
+		MonetPoolingDataSource ds = new MonetPoolingDataSource();
+		ds.setDatabaseName(args[0]);	// the URL, including user and password
+
+		try {
+			stmt.executeUpdate("CREATE TABLE table_Test_Rparallelscan ( id int, name varchar(10) )");
+			stmt.executeUpdate("INSERT INTO table_Test_Rparallelscan SELECT value, 'row' || value FROM sys.generate_series(1, 101)");
+			stmt.executeUpdate("INSERT INTO table_Test_Rparallelscan VALUES (NULL, 'null')");
+
+			// >> all rows, sorted on id with the NULL first
+			MonetParallelScan scan = new MonetParallelScan(ds, "SELECT * FROM table_Test_Rparallelscan", "id");
+			scan.setParallelism(3);
+			scan.setOrdered(true);
+			ResultSet rs = scan.executeQuery();
+			int rows = 0;
+			boolean sorted = true;
+			int prev = 0;
+			while (rs.next()) {
+				rows++;
+				int id = rs.getInt(1);
+				if (rows == 1) {
+					System.out.println("1. true null\t" + rs.wasNull() + " " + rs.getString(2));
+				} else {
+					sorted &= id > prev;
+					prev = id;
+				}
+			}
+			rs.close();
+			System.out.println("2. 101 true 100\t" + rows + " " + sorted + " " + prev);
+
+			// >> the same rows with given bounds, unordered
+			scan.setOrdered(false);
+			scan.setBounds(Integer.valueOf(10), Integer.valueOf(50));
+			rs = scan.executeQuery();
+			rows = 0;
+			while (rs.next())
+				rows++;
+			rs.close();
+			System.out.println("3. 101\t" + rows);
+
+			// >> all rows passed to a handler
+			final AtomicLong sum = new AtomicLong();
+			long n = scan.forEach(new MonetParallelScan.RowHandler() {
+				@Override
+				public void handle(ResultSet rs) throws SQLException {
+					sum.addAndGet(rs.getInt(1));
+				}
+			});
+			System.out.println("4. 101 5050\t" + n + " " + sum);
+
+			// >> derived ranges need an integer column
+			scan = new MonetParallelScan(ds, "SELECT * FROM table_Test_Rparallelscan", "name");
+			try {
+				scan.executeQuery();
+				System.out.println("5. failed, a varchar column without bounds should throw");
+			} catch (SQLException e) {
+				System.out.println("5. ok\t" + e.getMessage());
+			}
+		} catch (SQLException e) {
+			System.out.println("failed :( "+ e.getMessage());
+			System.out.println("ABORTING TEST!!!");
+		}
+
+		stmt.executeUpdate("DROP TABLE table_Test_Rparallelscan");
+		ds.close();
+		con.close();
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0.  If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Copyright 1997 - July 2008 CWI, August 2008 - 2017 MonetDB B.V.
+ */
+
+import java.sql.*;
+
+/* A query is stopped by a timeout or cancel() by aborting its
+ * connection, see MonetStatement.cancel() */
+public class Test_Scancel {
+	public static void main(String[] args) throws Exception {
+		Connection con = DriverManager.getConnection(args[0]);
+		Statement st = con.createStatement();
+		ResultSet rs;
+
+		try {
+			// >> cancel() with no query in progress does nothing
+			st.cancel();
+			rs = st.executeQuery("SELECT 1");
+			System.out.println("1. true\t" + rs.next());
+			rs.close();
+			st.cancel();
+			System.out.println("2. false\t" + con.isClosed());
+
+			// >> a query running longer than the timeout is stopped
+			st.setQueryTimeout(1);
+			long start = System.currentTimeMillis();
+			try {
+				st.executeQuery("SELECT sys.sleep(5000)");
+				System.out.println("3. failed, the query should have timed out");
+			} catch (SQLException e) {
+				System.out.println("3. HYT00\t" + e.getSQLState());
+				System.out.println("4. true\t" + (e instanceof SQLTimeoutException));
+			}
+			System.out.println("5. true\t" + (System.currentTimeMillis() - start < 4000));
+			System.out.println("6. true\t" + con.isClosed());
+		} catch (SQLException e) {
+			System.out.println("FAILED :( "+ e.getMessage());
+			System.out.println("ABORTING TEST!!!");
+		}
+		con.close();
+
+		con = DriverManager.getConnection(args[0]);
+		final Statement st2 = con.createStatement();
+		try {
+			// >> cancel() from another thread stops the query
+			Thread canceller = new Thread() {
+				public void run() {
+					try {
+						Thread.sleep(1000);
+						st2.cancel();
+					} catch (Exception e) {
+						System.out.println("7. cancel() throws: " + e);
+					}
+				}
+			};
+			canceller.start();
+			long start = System.currentTimeMillis();
+			try {
+				st2.executeQuery("SELECT sys.sleep(5000)");
+				System.out.println("7. failed, the query should have been cancelled");
+			} catch (SQLException e) {
+				System.out.println("7. HY008\t" + e.getSQLState());
+			}
+			canceller.join();
+			System.out.println("8. true\t" + (System.currentTimeMillis() - start < 4000));
+			System.out.println("9. true\t" + con.isClosed());
+		} catch (SQLException e) {
+			System.out.println("FAILED :( "+ e.getMessage());
+			System.out.println("ABORTING TEST!!!");
+		}
+		con.close();
+	}
+}